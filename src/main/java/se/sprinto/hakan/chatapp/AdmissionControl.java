@@ -0,0 +1,163 @@
+package se.sprinto.hakan.chatapp;
+
+import se.sprinto.hakan.chatapp.util.ServerConfig;
+import se.sprinto.hakan.chatapp.util.TokenBucket;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Skydd mot klienter som öppnar för många anslutningar eller gissar lösenord i en loop.
+ *
+ * När en anslutning tas emot: högst maxConnections totalt och maxPerIp från samma adress.
+ * Inloggningsförsök begränsas per IP (så att det inte hjälper att ansluta igen)
+ * och chattrader per anslutning, båda med en TokenBucket.
+ *
+ * Det som körs för varje chattrad är en CAS i anslutningens egen bucket.
+ * Räknarna per IP ändras bara när någon ansluter, kopplar från eller loggar in.
+ * 0 i en gräns stänger av den.
+ */
+class AdmissionControl {
+
+    // hur många anslutningar en IP har och hur många inloggningsförsök den har kvar
+    private final class PerIp {
+        // ändras bara inne i compute() för den här IP:n
+        private int connections;
+        private final TokenBucket auth = authBucket();
+    }
+
+    private final int maxConnections;
+    private final int maxPerIp;
+    private final int authBurst;
+    private final int authPerMinute;
+    private final int messageBurst;
+    private final int messagesPerSecond;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Map<InetAddress, PerIp> perIp = new ConcurrentHashMap<>();
+    private final AtomicLong admitted = new AtomicLong();
+
+    private final LongAdder rejectedTotal = new LongAdder();
+    private final LongAdder rejectedPerIp = new LongAdder();
+    private final LongAdder throttledAuth = new LongAdder();
+    private final LongAdder throttledMessages = new LongAdder();
+
+    AdmissionControl(int maxConnections, int maxPerIp, int authBurst, int authPerMinute,
+                     int messageBurst, int messagesPerSecond) {
+        this.maxConnections = maxConnections;
+        this.maxPerIp = maxPerIp;
+        this.authBurst = authBurst;
+        this.authPerMinute = authPerMinute;
+        this.messageBurst = messageBurst;
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    static AdmissionControl fromConfig(ServerConfig config) {
+        return new AdmissionControl(
+                config.getInt("server.limits.maxConnections", 10_000),
+                config.getInt("server.limits.maxConnectionsPerIp", 20),
+                config.getInt("server.limits.authBurst", 5),
+                config.getInt("server.limits.authPerMinute", 10),
+                config.getInt("server.limits.messageBurst", 20),
+                config.getInt("server.limits.messagesPerSecond", 5));
+    }
+
+    /**
+     * en ny anslutning, räknas tills release() anropas
+     * @return false om den ska nekas
+     */
+    boolean admit(InetAddress address) {
+        if (connections.incrementAndGet() > maxConnections && maxConnections > 0) {
+            connections.decrementAndGet();
+            rejectedTotal.increment();
+            return false;
+        }
+        boolean[] accepted = {false};
+        perIp.compute(address, (key, entry) -> {
+            PerIp current = entry != null ? entry : new PerIp();
+            if (maxPerIp <= 0 || current.connections < maxPerIp) {
+                current.connections++;
+                accepted[0] = true;
+            }
+            return current;
+        });
+        if (!accepted[0]) {
+            connections.decrementAndGet();
+            rejectedPerIp.increment();
+            return false;
+        }
+        // IP:n som har kopplat från men inte hunnit få tillbaka sina försök städas då och då
+        if (admitted.incrementAndGet() % 1024 == 0) {
+            perIp.keySet().forEach(this::forgetIfIdle);
+        }
+        return true;
+    }
+
+    void release(InetAddress address) {
+        connections.decrementAndGet();
+        perIp.computeIfPresent(address, (key, entry) -> {
+            entry.connections--;
+            return idle(entry) ? null : entry;
+        });
+    }
+
+    /**
+     * ett inloggnings- eller registreringsförsök från adressen
+     * @return false om den får vänta, då ska ingen BCrypt köras
+     */
+    boolean tryAuth(InetAddress address) {
+        PerIp entry = perIp.get(address);
+        if (entry == null || entry.auth == null || entry.auth.tryAcquire()) {
+            return true;
+        }
+        throttledAuth.increment();
+        return false;
+    }
+
+    /**
+     * en egen bucket för varje anslutnings chattrader
+     * @return null om chattrader inte begränsas
+     */
+    TokenBucket newMessageBucket() {
+        return messageBurst > 0 && messagesPerSecond > 0 ? new TokenBucket(messageBurst, messagesPerSecond) : null;
+    }
+
+    void messageThrottled() {
+        throttledMessages.increment();
+    }
+
+    int connections() {
+        return connections.get();
+    }
+
+    long rejected() {
+        return rejectedTotal.sum() + rejectedPerIp.sum();
+    }
+
+    long throttledAuth() {
+        return throttledAuth.sum();
+    }
+
+    String summary() {
+        return "🚦 Anslutningar: " + connections() + " från " + perIp.size() + " IP"
+                + ", nekade " + rejectedTotal.sum() + " (fullt) + " + rejectedPerIp.sum() + " (per IP)"
+                + ", bromsade inloggningar " + throttledAuth() + ", bromsade rader " + throttledMessages.sum();
+    }
+
+    private TokenBucket authBucket() {
+        return authBurst > 0 && authPerMinute > 0 ? new TokenBucket(authBurst, authPerMinute / 60.0) : null;
+    }
+
+    // ingen anslutning kvar och alla försök tillbaka, då behövs inte posten
+    private boolean idle(PerIp entry) {
+        return entry.connections <= 0 && (entry.auth == null || entry.auth.isFull());
+    }
+
+    private void forgetIfIdle(InetAddress address) {
+        perIp.computeIfPresent(address, (key, entry) -> idle(entry) ? null : entry);
+    }
+}
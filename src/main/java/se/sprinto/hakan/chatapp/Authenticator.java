@@ -0,0 +1,164 @@
+package se.sprinto.hakan.chatapp;
+
+import se.sprinto.hakan.chatapp.dao.AsyncUserDAO;
+import se.sprinto.hakan.chatapp.model.User;
+import se.sprinto.hakan.chatapp.util.LatencyHistogram;
+import se.sprinto.hakan.chatapp.util.PasswordUtil;
+import se.sprinto.hakan.chatapp.util.ThreadUtil;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Inloggning och registrering där BCrypt körs på egna trådar, högst en per kärna.
+ * Databasanropen går via AsyncUserDAO (DAO-trådarna) och bara hash/verifiering
+ * hamnar här, så en inloggningsstorm efter en omstart inte tar all CPU från chatten.
+ *
+ * Kön är begränsad. Är den full blir futuren misslyckad med
+ * RejectedExecutionException direkt och klienten får försöka igen.
+ */
+class Authenticator {
+
+    private final AsyncUserDAO users;
+    private final ThreadPoolExecutor executor;
+    // upptagna namn nekas innan de hashas, null = av
+    private final UsernameFilter names;
+
+    // tid i kön innan BCrypt börjar, och tiden BCrypt tar
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram compute = new LatencyHistogram();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder rehashed = new LongAdder();
+
+    Authenticator(AsyncUserDAO users, int threads, int queueCapacity) {
+        this(users, threads, queueCapacity, null);
+    }
+
+    Authenticator(AsyncUserDAO users, int threads, int queueCapacity, UsernameFilter names) {
+        this.users = users;
+        this.names = names;
+        this.executor = ThreadUtil.boundedExecutor("chat-auth", threads, queueCapacity);
+    }
+
+    /**
+     * @return användaren om lösenordet stämmer, null annars
+     */
+    CompletableFuture<User> login(String username, String password) {
+        return users.findByUsernameAsync(username).thenCompose(user -> {
+            if (user == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return submit(() -> {
+                if (!PasswordUtil.verifyPassword(password, user.getPassword())) {
+                    return null;
+                }
+                if (PasswordUtil.needsRehash(user.getPassword())) {
+                    rehash(user, password);
+                }
+                return user;
+            });
+        });
+    }
+
+    /**
+     * hashen har en annan cost än den servern kalibrerade fram, t.ex efter byte av
+     * hårdvara. byts i bakgrunden medan vi ändå har lösenordet i klartext.
+     * är kön full hoppar vi över det, det blir ett nytt försök vid nästa inloggning
+     */
+    private void rehash(User user, String password) {
+        if (executor.getQueue().remainingCapacity() == 0) {
+            return;
+        }
+        String oldHash = user.getPassword();
+        submit(() -> PasswordUtil.hashPassword(password))
+                .thenCompose(newHash -> users.replacePasswordHashAsync(user.getUsername(), oldHash, newHash))
+                .whenComplete((replaced, e) -> {
+                    if (Boolean.TRUE.equals(replaced)) {
+                        rehashed.increment();
+                    }
+                });
+    }
+
+    /**
+     * hashar på auth-trådarna och sparar sedan via DAO-trådarna.
+     * ett namn som redan är taget nekas innan BCrypt om namnfiltret vet om det
+     * @return användaren med id, null om namnet är taget
+     */
+    CompletableFuture<User> register(String username, String password) {
+        if (names == null) {
+            return hashAndRegister(username, password);
+        }
+        return switch (names.check(username)) {
+            case FREE -> hashAndRegister(username, password);
+            case TAKEN -> CompletableFuture.completedFuture(null);
+            case MAYBE -> users.findByUsernameAsync(username).thenCompose(existing -> {
+                if (existing != null) {
+                    names.add(username);
+                    return CompletableFuture.completedFuture(null);
+                }
+                names.falsePositive();
+                return hashAndRegister(username, password);
+            });
+        };
+    }
+
+    private CompletableFuture<User> hashAndRegister(String username, String password) {
+        return submit(() -> PasswordUtil.hashPassword(password))
+                .thenCompose(hashed -> users.registerHashedAsync(new User(username, hashed)))
+                .thenApply(registered -> {
+                    // null betyder att databasen sa att namnet redan finns (t.ex skapat av en annan server),
+                    // det är taget i båda fallen. andra databasfel gör futuren misslyckad och hamnar inte här
+                    if (names != null) {
+                        names.add(username);
+                    }
+                    return registered;
+                });
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> work) {
+        long queued = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                queueWait.recordNanos(start - queued);
+                try {
+                    return work.get();
+                } finally {
+                    compute.recordNanos(System.nanoTime() - start);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    LatencyHistogram queueWait() {
+        return queueWait;
+    }
+
+    LatencyHistogram compute() {
+        return compute;
+    }
+
+    long rejected() {
+        return rejected.sum();
+    }
+
+    long rehashed() {
+        return rehashed.sum();
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    String summary() {
+        return "🔐 Auth: " + executor.getActiveCount() + " aktiva, " + executor.getQueue().size() + " i kö, nekade "
+                + rejected() + ", omhashade " + rehashed() + " (cost " + PasswordUtil.getCost() + ")"
+                + " | kö " + queueWait.summary() + " | bcrypt " + compute.summary();
+    }
+}
@@ -16,11 +16,15 @@ import javafx.scene.text.FontWeight;
 import javafx.stage.Stage;
 import javafx.util.Duration;
 
-import java.io.BufferedReader;
+import se.sprinto.hakan.chatapp.protocol.Frame;
+import se.sprinto.hakan.chatapp.protocol.FrameReader;
+import se.sprinto.hakan.chatapp.protocol.FrameType;
+
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 
@@ -34,8 +38,8 @@ import java.time.format.DateTimeFormatter;
 public class ChatClientFX extends Application {
     // Nätverkskomponenter för serveranslutning
     private Socket socket;              // Socket-anslutning till servern
-    private PrintWriter out;            // För att skicka meddelanden till servern
-    private BufferedReader in;          // För att läsa meddelanden från servern
+    private OutputStream out;           // För att skicka meddelanden till servern (INPUT-frames)
+    private FrameReader in;             // För att läsa frames från servern
 
     // UI-komponenter
     private VBox chatContainer;
@@ -44,6 +48,11 @@ public class ChatClientFX extends Application {
     private TextField messageField;     // Textfält för att skriva meddelanden
     private Label statusLabel;          // Visar anslutningsstatus
     private String currentUser;         // Nuvarande inloggad användare
+    private volatile String sessionToken;   // Sessionsnyckel från servern, används med /resume
+    private volatile boolean quitting;      // true när användaren själv kopplar från
+
+    // Återanslutning efter bruten anslutning: 1, 2, 4, 8, 16 sekunders väntan
+    private static final int RECONNECT_ATTEMPTS = 5;
 
     // Färgpalett: Midnight Neon-tema
     private static final String MIDNIGHT_BG = "#0A0A23";        // Mörkblå bakgrund
@@ -408,7 +417,7 @@ public class ChatClientFX extends Application {
         // Handler för att hämta sparade meddelanden
         myMsgsButton.setOnAction(e -> {
             if (out != null) {
-                out.println("/mymsgs");  // Skicka kommando till servern
+                sendLine("/mymsgs");  // Skicka kommando till servern
             }
         });
         // Blixt-ikon för skicka-animation (initialt dold)
@@ -588,11 +597,6 @@ public class ChatClientFX extends Application {
      */
 
     private HBox addChatBubble(String sender,String message, boolean isOwn) {
-        //FIIIX
-        if(message.startsWith("[") ||message.startsWith("]")) {
-            message = message.substring((sender + "[" + "]").length()).trim();
-        }
-
         HBox container = new HBox(10);
         container.setPadding(new Insets(12,14,12,14));
         container.setAlignment(isOwn ? Pos.CENTER_RIGHT : Pos.CENTER_LEFT);
@@ -921,70 +925,66 @@ public class ChatClientFX extends Application {
      */
     private boolean connectToServer(String username, String password, boolean isLogin) {
         try {
-            // Skapa socket-anslutning till servern
-            socket = new Socket("localhost", 5555);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-            // STEG 1: Läs välkomstmeddelande "Välkommen! Har du redan ett konto? (ja/nej)"
-            String welcome = in.readLine();
-            System.out.println("Server: " + welcome);
+            // STEG 1: Anslut och byt till binära frames
+            if (!openConnection()) {
+                return false;
+            }
 
             // STEG 2: Svara på frågan om befintligt konto
-            out.println(isLogin ? "ja" : "nej");
+            sendLine(isLogin ? "ja" : "nej");
 
             if (isLogin) {
                 // === INLOGGNINGSFLÖDE ===
 
                 // STEG 3a: Läs "Ange användarnamn:"
-                String prompt1 = in.readLine();
+                String prompt1 = readText();
                 System.out.println("Server: " + prompt1);
-                out.println(username);
+                sendLine(username);
 
                 // STEG 4a: Läs "Ange lösenord:"
-                String prompt2 = in.readLine();
+                String prompt2 = readText();
                 System.out.println("Server: " + prompt2);
-                out.println(password);
+                sendLine(password);
 
                 // STEG 5a: Läs resultat (välkomstmeddelande eller felmeddelande)
-                String result = in.readLine();
-                System.out.println("Server: " + result);
+                Frame result = nextFrame();
+                System.out.println("Server: " + (result == null ? null : result.getText()));
 
                 // Kontrollera om inloggning misslyckades
-                if (result.contains("Fel användarnamn") || result.contains("❌")) {
+                if (result == null || result.getType() == FrameType.ERROR) {
                     return false;
                 }
 
                 // STEG 6a: Läs "Vill du hämta dina meddelanden direkt (ja/nej)"
-                String fetchPrompt = in.readLine();
+                String fetchPrompt = readText();
                 System.out.println("Server: " + fetchPrompt);
 
                 // Svara nej (kan ändras till ja om man vill ladda meddelanden vid inloggning)
-                out.println("nej");
+                sendLine("nej");
 
                 // STEG 7a: Läs serverns svar på meddelande-frågan
-                String msgResponse = in.readLine();
+                String msgResponse = readText();
                 System.out.println("Server: " + msgResponse);
 
             } else {
                 // === REGISTRERINGSFLÖDE ===
 
                 // STEG 3b: Läs "Skapa nytt konto. Ange användarnamn:"
-                String prompt1 = in.readLine();
+                String prompt1 = readText();
                 System.out.println("Server: " + prompt1);
-                out.println(username);
+                sendLine(username);
 
                 // STEG 4b: Läs "Ange lösenord:"
-                String prompt2 = in.readLine();
+                String prompt2 = readText();
                 System.out.println("Server: " + prompt2);
-                out.println(password);
+                sendLine(password);
 
                 // STEG 5b: Läs resultat (bekräftelse eller felmeddelande)
-                String result = in.readLine();
-                System.out.println("Server: " + result);
+                Frame result = nextFrame();
+                System.out.println("Server: " + (result == null ? null : result.getText()));
 
                 // Kontrollera om registrering misslyckades (användarnamn upptaget)
-                if (result.contains("redan taget") || result.contains("❌")) {
+                if (result == null || result.getType() == FrameType.ERROR) {
                     return false;
                 }
 
@@ -997,7 +997,7 @@ public class ChatClientFX extends Application {
             // 4. "Skriv /mymsgs för att se dina sparade meddelanden 📜"
             // 5. "[username] anslöt."
           //  for (int i = 0; i < 5; i++) {
-                String infoLine = in.readLine();
+                String infoLine = readText();
                 System.out.println("Server: " + infoLine);
             }
 
@@ -1011,6 +1011,97 @@ public class ChatClientFX extends Application {
         }
     }
 
+    /**
+     * Skapar socket-anslutningen, läser välkomstmeddelandet och byter till binära frames.
+     * @return false om servern stängde innan den svarade
+     */
+    private boolean openConnection() throws IOException {
+        socket = new Socket("localhost", 5555);
+        out = socket.getOutputStream();
+        in = new FrameReader(new BufferedInputStream(socket.getInputStream()));
+
+        // Välkomstmeddelande "Välkommen! Har du redan ett konto? (ja/nej)"
+        // (servern pratar text tills vi bett om binärt)
+        String welcome = in.readLine();
+        System.out.println("Server: " + welcome);
+
+        // Byt till binära frames, då behöver vi inte gissa vad en rad är
+        out.write((Frame.BINARY_HELLO + "\n").getBytes(StandardCharsets.UTF_8));
+        String ack;
+        while ((ack = in.readLine()) != null && !ack.equals(Frame.BINARY_ACK)) {
+            System.out.println("Server: " + ack);
+        }
+        return ack != null;
+    }
+
+    /**
+     * Ansluter igen med sessionsnyckeln istället för användarnamn och lösenord,
+     * så servern slipper köra BCrypt för varje nätverksstrul.
+     * @return true om servern tog emot nyckeln
+     */
+    private boolean resumeSession() {
+        String token = sessionToken;
+        if (token == null) return false;
+        try {
+            if (!openConnection()) return false;
+            sendLine("/resume " + token);
+
+            // "🔄 Välkommen tillbaka" eller ett fel om nyckeln inte gäller längre
+            Frame result = nextFrame();
+            System.out.println("Server: " + (result == null ? null : result.getText()));
+            if (result == null) return false;
+            if (result.getType() == FrameType.ERROR) {
+                // Nyckeln är förbrukad, då hjälper det inte att försöka igen
+                sessionToken = null;
+                socket.close();
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Återanslutning misslyckades: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Anslutningen bröts utan att användaren bad om det.
+     * Försöker några gånger med sessionsnyckeln innan vi ger upp.
+     */
+    private void connectionLost() {
+        if (quitting) return;
+        Platform.runLater(() -> {
+            if (statusLabel != null) {
+                statusLabel.setText("🟠 Återansluter...");
+                statusLabel.setTextFill(Color.web(NEON_PURPLE));
+            }
+            addSystemMessage("⚠️ Anslutningen bröts, försöker återansluta...");
+        });
+        for (int attempt = 0; attempt < RECONNECT_ATTEMPTS && sessionToken != null && !quitting; attempt++) {
+            try {
+                Thread.sleep(1000L << attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (resumeSession()) {
+                Platform.runLater(() -> {
+                    statusLabel.setText("Ansluten som " + currentUser);
+                    statusLabel.setTextFill(Color.web(NEON_PINK));
+                });
+                startMessageListener();
+                return;
+            }
+        }
+        // Om anslutningen inte gick att få tillbaka, uppdatera status
+        Platform.runLater(() -> {
+            if (statusLabel != null) {
+                statusLabel.setText("🔴 Anslutning bruten");
+                statusLabel.setTextFill(Color.web(ERROR_RED));
+            }
+            addSystemMessage("❌Anslutningen till serven bröts");
+        });
+    }
+
     /**
      * Startar en separat tråd som lyssnar på inkommande meddelanden från servern.
      * Alla meddelanden läggs till i chatArea på JavaFX Application Thread.
@@ -1018,61 +1109,44 @@ public class ChatClientFX extends Application {
     private void startMessageListener() {
         Thread listener = new Thread(() -> {
             try {
-                String message;
-                // Läs kontinuerligt meddelanden tills anslutningen bryts
-                while ((message = in.readLine()) != null) {
-                    final String msg = message;
+                Frame frame;
+                // Läs kontinuerligt frames tills anslutningen bryts
+                while ((frame = nextFrame()) != null) {
+                    final Frame f = frame;
 
                     // Uppdatera UI på JavaFX-tråden (GUI måste alltid uppdateras på denna tråd)
                     Platform.runLater(() -> {
-                            // SYSTEMMEDDELANDEN (vanlig text, ingen bubbla)
-                            if (msg.startsWith("✅") || msg.startsWith("Du är inloggad") ||
-                                    msg.startsWith("Nu kan du") || msg.startsWith("Skriv /") ||
-                                    msg.contains("anslöt") || msg.contains("sparade meddelanden") ||
-                                    msg.startsWith("📜") || msg.startsWith("💬") || msg.startsWith("[")) {
-                                addSystemMessage(msg);
-                                // Meddelanden från /mymsgs addSystemMessage(msg);
-                            }
-
-
-                        // CHAT-MEDDELANDEN MED BUBBLA
-                        // Format från servern: "användarnamn: meddelande"
-                        else if (msg.contains(": ")) {
-                            int colonIndex = msg.indexOf(": ");
-                            String sender = msg.substring(0, colonIndex).trim();
-                            String content = msg.substring(colonIndex + 2).trim();
-
-                            boolean isOwn = sender.equalsIgnoreCase(currentUser);
-                            addChatBubble(sender, content, isOwn);
-
-                            // Blink-effekt för andras meddelanden
-                            if (!isOwn) {
-                                String origStyle = chatContainer.getStyle();
-                                Timeline blink = new Timeline(
-                                        new KeyFrame(Duration.ZERO, ev -> chatContainer.setStyle(
-                                                origStyle + "-fx-border-color: " + NEON_PURPLE + "; -fx-border-width: 2;")),
-                                        new KeyFrame(Duration.seconds(0.15), ev -> chatContainer.setStyle(origStyle))
-                                );
-                                blink.play();
+                        switch (f.getType()) {
+                            // CHAT-MEDDELANDEN MED BUBBLA, avsändaren står i framen
+                            case CHAT, PRIVATE -> {
+                                boolean isOwn = f.getSenderName().equalsIgnoreCase(currentUser);
+                                String sender = f.getType() == FrameType.PRIVATE
+                                        ? f.getSenderName() + " (privat)" : f.getSenderName();
+                                addChatBubble(sender, f.getText(), isOwn);
+
+                                // Blink-effekt för andras meddelanden
+                                if (!isOwn) {
+                                    String origStyle = chatContainer.getStyle();
+                                    Timeline blink = new Timeline(
+                                            new KeyFrame(Duration.ZERO, ev -> chatContainer.setStyle(
+                                                    origStyle + "-fx-border-color: " + NEON_PURPLE + "; -fx-border-width: 2;")),
+                                            new KeyFrame(Duration.seconds(0.15), ev -> chatContainer.setStyle(origStyle))
+                                    );
+                                    blink.play();
+                                }
                             }
+                            // Meddelanden från /mymsgs och rummets historik
+                            case HISTORY -> addSystemMessage(f.toTextLine());
+                            // SYSTEMMEDDELANDEN och fel (vanlig text, ingen bubbla)
+                            default -> addSystemMessage(f.getText());
                         }
-                        // Allt annat som system-text
-                        else {
-                            addSystemMessage(msg);
-                        }
-
                     });
                 }
             } catch (IOException e) {
-                // Om anslutningen bryts, uppdatera status
-                Platform.runLater(() -> {
-                    if (statusLabel != null) {
-                        statusLabel.setText("🔴 Anslutning bruten");
-                        statusLabel.setTextFill(Color.web(ERROR_RED));
-                    }
-                    addSystemMessage("❌Anslutningen till serven bröts");
-                });
+                System.err.println("Anslutningen bröts: " + e.getMessage());
             }
+            // Servern stängde eller nätverket försvann, försök komma tillbaka
+            connectionLost();
         });
 
         // Sätt som daemon-tråd så den avslutas automatiskt när programmet stängs
@@ -1090,7 +1164,7 @@ public class ChatClientFX extends Application {
 
         // Validera att meddelandet inte är tomt och att anslutningen finns
         if (message.isEmpty() || out == null) return;
-        out.println(message);
+        sendLine(message);
 
        if(!message.startsWith("/")){
 
@@ -1139,9 +1213,10 @@ public class ChatClientFX extends Application {
      * Skickar quit-kommando och stänger socket.
      */
     private void disconnect() {
+        quitting = true;
         try {
-            // Skicka quit-kommando till servern (VIKTIGT: utan '/' eftersom servern förväntar "quit")
-            if (out != null) out.println("quit");
+            // Skicka quit-kommando till servern
+            if (out != null) sendLine("/quit");
 
             // Stäng socket-anslutningen
             if (socket != null && !socket.isClosed()) socket.close();
@@ -1151,6 +1226,34 @@ public class ChatClientFX extends Application {
         }
     }
 
+    /**
+     * Skickar en rad till servern som en INPUT-frame.
+     * Går det inte märker lyssnartråden att anslutningen är bruten.
+     */
+    private void sendLine(String line) {
+        try {
+            Frame.input(line).writeTo(out);
+        } catch (IOException e) {
+            System.err.println("Kunde inte skicka: " + e.getMessage());
+        }
+    }
+
+    // texten i nästa frame från servern, null om anslutningen stängts
+    private String readText() throws IOException {
+        Frame frame = nextFrame();
+        return frame == null ? null : frame.getText();
+    }
+
+    // nästa frame från servern, sessionsnycklar sparas och hoppas över
+    private Frame nextFrame() throws IOException {
+        Frame frame = in.readFrame();
+        while (frame != null && frame.getType() == FrameType.SESSION) {
+            sessionToken = frame.getText();
+            frame = in.readFrame();
+        }
+        return frame;
+    }
+
     /**
      * Huvudingång för JavaFX-applikationen.
      * @param args Kommandoradsargument
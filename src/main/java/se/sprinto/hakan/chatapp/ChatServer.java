@@ -1,64 +1,521 @@
 package se.sprinto.hakan.chatapp;
 
+import se.sprinto.hakan.chatapp.dao.AsyncMessageDAO;
+import se.sprinto.hakan.chatapp.dao.AsyncUserDAO;
+import se.sprinto.hakan.chatapp.dao.CachingMessageDAO;
+import se.sprinto.hakan.chatapp.dao.CachingUserDAO;
+import se.sprinto.hakan.chatapp.dao.IndexingMessageDAO;
+import se.sprinto.hakan.chatapp.dao.MappedLogMessageDAO;
+import se.sprinto.hakan.chatapp.dao.MessageDAO;
+import se.sprinto.hakan.chatapp.dao.MessageDatabaseDAO;
+import se.sprinto.hakan.chatapp.dao.MessageListDAO;
+import se.sprinto.hakan.chatapp.dao.UserDAO;
+import se.sprinto.hakan.chatapp.dao.UserDatabaseDAO;
+import se.sprinto.hakan.chatapp.dao.UserListDAO;
+import se.sprinto.hakan.chatapp.dao.WriteBehindMessageDAO;
+import se.sprinto.hakan.chatapp.model.Message;
+import se.sprinto.hakan.chatapp.protocol.Frame;
+import se.sprinto.hakan.chatapp.search.SearchIndex;
+import se.sprinto.hakan.chatapp.util.AsyncLog;
+import se.sprinto.hakan.chatapp.util.DatabaseUtil;
+import se.sprinto.hakan.chatapp.util.PasswordUtil;
+import se.sprinto.hakan.chatapp.util.ServerConfig;
+import se.sprinto.hakan.chatapp.util.ThreadUtil;
+
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class ChatServer {
 
+    // var meddelandena sparas
+    public enum MessageStore {
+        // messages-tabellen via MessageDatabaseDAO
+        DATABASE,
+        // egna loggfiler på disk (MappedLogMessageDAO), ingen databas behövs för meddelanden
+        LOG,
+        // bara i minnet (MessageListDAO), de äldsta per användare glöms bort. för lasttester
+        MEMORY
+    }
+
+    // vad som händer när någon loggar in på ett konto som redan är online
+    public enum DuplicateLogin {
+        // den nya anslutningen tar över, den gamla kopplas bort (t.ex efter nätverksstrul)
+        REPLACE,
+        // den nya inloggningen nekas så länge den gamla är kvar
+        REJECT
+    }
+
     private final int port;
+    private final ServerMode mode;
+
+    // inställningar för varje klients utgående kö
+    private final int outboundCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int coalesceMaxBytes;
+
+    // kör ClientHandler och writer-trådarna i thread/virtual-läget
+    private ExecutorService executor;
 
     //trådsäker mängd med klienter
     private final Set<ClientHandler> clients = ConcurrentHashMap.newKeySet();
 
+    // inloggade klienter per användarnamn i gemener, för uppslag i O(1)
+    private final Map<String, ClientHandler> usersByName = new ConcurrentHashMap<>();
+    private final DuplicateLogin duplicateLogin;
+
+    // alla chattrum, varje rum har sina egna medlemmar
+    private final RoomRegistry rooms;
+
+    // var användarna finns
+    public enum UserStore {
+        // users-tabellen via UserDatabaseDAO
+        DATABASE,
+        // bara i minnet (UserListDAO), försvinner vid omstart. för lasttester
+        MEMORY
+    }
+
+    // delas av alla klienter
+    private final UserDAO userDAO;
+
+    // DAO-anrop körs här istället för i klientens tråd, lika många trådar som
+    // databasanslutningar så att ingen tråd står och väntar på en anslutning
+    private final ThreadPoolExecutor daoExecutor;
+    private final AsyncUserDAO asyncUsers;
+    private final AsyncMessageDAO asyncMessages;
+    // BCrypt vid inloggning och registrering, på egna trådar
+    private final Authenticator authenticator;
+    // upptagna användarnamn, så att registrering kan nekas innan BCrypt. null = av
+    private final UsernameFilter usernames;
+    // gränser för anslutningar, inloggningsförsök och chattrader
+    private final AdmissionControl admission;
+    // nycklar för /resume, null = av
+    private final SessionTokens sessions;
+
+    // delas av alla klienter, sparar i bakgrunden med batchar till messageStore
+    private final WriteBehindMessageDAO messageDAO;
+    private final MessageDAO messageStore;
+    // sökindex över messageStore för /search, null = av
+    private final IndexingMessageDAO searchable;
+    // de senaste meddelandena per användare i minnet framför messageDAO, null = av
+    private final CachingMessageDAO historyCache;
+
     public ChatServer(int port) {
+        this(port, ServerMode.THREAD);
+    }
+
+    public ChatServer(int port, ServerMode mode) {
         this.port = port;
+        this.mode = mode;
+        ServerConfig config = ServerConfig.getInstance();
+        this.outboundCapacity = config.getInt("server.outbound.capacity", 1024);
+        this.overflowPolicy = config.getEnum("server.outbound.policy", OverflowPolicy.DROP_OLDEST);
+        this.coalesceMaxBytes = config.getInt("server.outbound.coalesceMaxBytes", 64 * 1024);
+        this.duplicateLogin = config.getEnum("server.duplicateLogin", DuplicateLogin.REPLACE);
+        int shards = config.getInt("server.rooms.shards", 0);
+        this.rooms = new RoomRegistry(shards > 0 ? shards : Runtime.getRuntime().availableProcessors());
+        this.messageStore = messageStore(config);
+        this.searchable = Boolean.parseBoolean(config.getString("server.search.enabled", "true"))
+                ? new IndexingMessageDAO(messageStore, new SearchIndex())
+                : null;
+        this.messageDAO = new WriteBehindMessageDAO(searchable != null ? searchable : messageStore,
+                config.getEnum("server.messages.durability", WriteBehindMessageDAO.Durability.ASYNC),
+                config.getInt("server.messages.queueCapacity", 10000),
+                config.getInt("server.messages.batchSize", 256),
+                config.getInt("server.messages.flushMillis", 20),
+                config.getInt("server.messages.putTimeoutMillis", 5000));
+        int perUser = config.getInt("server.history.cache.perUser", 256);
+        this.historyCache = perUser > 0
+                ? new CachingMessageDAO(messageDAO, perUser, config.getInt("server.history.cache.maxMessages", 200_000))
+                : null;
+        this.userDAO = userStore(config, getMessageDAO());
+        this.daoExecutor = ThreadUtil.boundedExecutor("chat-dao", DatabaseUtil.getInstance().getMaxPoolSize(),
+                config.getInt("server.dao.queueCapacity", 1000));
+        this.asyncUsers = new AsyncUserDAO(userDAO, daoExecutor);
+        this.asyncMessages = new AsyncMessageDAO(getMessageDAO(), daoExecutor);
+        int expectedNames = config.getInt("server.users.filter.expectedNames", 1_000_000);
+        this.usernames = expectedNames > 0
+                ? new UsernameFilter(expectedNames,
+                        Double.parseDouble(config.getString("server.users.filter.falsePositiveRate", "0.01")),
+                        config.getInt("server.users.filter.recentNames", 10_000))
+                : null;
+        int authThreads = config.getInt("server.auth.threads", 0);
+        this.authenticator = new Authenticator(asyncUsers,
+                authThreads > 0 ? authThreads : Runtime.getRuntime().availableProcessors(),
+                config.getInt("server.auth.queueCapacity", 256), usernames);
+        this.admission = AdmissionControl.fromConfig(config);
+        int sessionTtl = config.getInt("server.session.ttlSeconds", 1800);
+        this.sessions = sessionTtl > 0 ? new SessionTokens(sessionTtl, TimeUnit.SECONDS) : null;
+    }
+
+    private static UserDAO userStore(ServerConfig config, MessageDAO messages) {
+        if (config.getEnum("server.users.store", UserStore.DATABASE) == UserStore.MEMORY) {
+            return new UserListDAO();
+        }
+        int cached = config.getInt("server.users.cache.maxEntries", 10000);
+        if (cached <= 0) {
+            return new UserDatabaseDAO(messages);
+        }
+        return new CachingUserDAO(new UserDatabaseDAO(messages), cached,
+                config.getInt("server.users.cache.ttlSeconds", 300), TimeUnit.SECONDS);
+    }
+
+    private static MessageDAO messageStore(ServerConfig config) {
+        MessageStore store = config.getEnum("server.messages.store", MessageStore.DATABASE);
+        if (store == MessageStore.MEMORY) {
+            return new MessageListDAO(config.getInt("server.memory.perUserCapacity", MessageListDAO.DEFAULT_CAPACITY),
+                    config.getInt("server.memory.perRoomCapacity", MessageListDAO.DEFAULT_CAPACITY));
+        }
+        if (store == MessageStore.LOG) {
+            return new MappedLogMessageDAO(Path.of(config.getString("server.log.dir", "data/messages")),
+                    config.getInt("server.log.segmentBytes", 64 * 1024 * 1024),
+                    config.getEnum("server.log.fsync", MappedLogMessageDAO.Fsync.INTERVAL),
+                    config.getInt("server.log.fsyncMillis", 1000));
+        }
+        return new MessageDatabaseDAO();
     }
 
     public void start() {
-        System.out.println("\uD83C\uDF38✨ Server startar på port " + port + "...");
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        System.out.println("\uD83C\uDF38✨ Server startar på port " + port + " (" + mode.name().toLowerCase() + ")...");
+        calibrateBcrypt();
+        seedUsernames();
+        buildSearchIndex();
+        startMetrics();
+        // meddelanden som ligger i kön skrivs innan processen avslutas
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "chat-shutdown"));
+        if (mode == ServerMode.NIO) {
+            startNio();
+            return;
+        }
+        executor = clientExecutor();
+        // blockerande kanaler istället för ServerSocket/Socket, så att en delad
+        // broadcast-buffert kan skrivas direkt till varje klient utan kopiering
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
             while (true) {
-                Socket clientSocket = serverSocket.accept();
-                ClientHandler handler = new ClientHandler(clientSocket, this);
+                SocketChannel clientChannel = serverChannel.accept();
+                InetAddress address = admit(clientChannel);
+                if (address == null) {
+                    continue;
+                }
+                ClientHandler handler = new ClientHandler(clientChannel, this, address);
                 clients.add(handler);
-                new Thread(handler).start();
+                executor.execute(handler);
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    // hitta en användare med medd
-    public ClientHandler findUser(String username) {
-        for (ClientHandler client : clients) {
-            if (client.getUser() != null && client.getUser()
-                    .getUsername().equalsIgnoreCase(username)) {
-                return client;
+    /**
+     * väljer BCrypt cost efter hur snabb datorn är, så att en inloggning tar ungefär
+     * server.bcrypt.targetMillis. gamla hashar byts vid nästa inloggning (se Authenticator)
+     */
+    private void calibrateBcrypt() {
+        ServerConfig config = ServerConfig.getInstance();
+        int fixed = config.getInt("server.bcrypt.cost", 0);
+        if (fixed > 0) {
+            PasswordUtil.setCost(fixed);
+        } else {
+            PasswordUtil.setCost(PasswordUtil.calibrate(config.getInt("server.bcrypt.targetMillis", 50),
+                    config.getInt("server.bcrypt.minCost", PasswordUtil.DEFAULT_COST),
+                    config.getInt("server.bcrypt.maxCost", 16)));
+        }
+        System.out.println("🔐 BCrypt cost " + PasswordUtil.getCost());
+    }
+
+    // alla befintliga namn in i namnfiltret innan första registreringen
+    private void seedUsernames() {
+        if (usernames == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        long[] count = {0};
+        userDAO.forEachUsername(name -> {
+            usernames.seed(name);
+            count[0]++;
+        });
+        System.out.println("📇 Namnfilter klart: " + count[0] + " användare på "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    /**
+     * släpper in en ny anslutning om server.limits.* tillåter det.
+     * en nekad klient får en rad text (den har inte hunnit be om binärt) och kopplas bort
+     * @return klientens adress, null om den nekades, kanalen är då stängd
+     */
+    InetAddress admit(SocketChannel channel) {
+        try {
+            InetAddress address = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+            if (admission.admit(address)) {
+                return address;
             }
+            channel.write(ByteBuffer.wrap("⛔ Servern tar inte emot fler anslutningar just nu, försök igen senare.\n"
+                    .getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            // klienten hann koppla från, inget att släppa in
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
         }
         return null;
     }
-        //broadcast till alla användare
-    void broadcast(String message, ClientHandler sender) {
-        System.out.println("Meddelande från " + sender.getUser().getUsername() + ": " + message);
+
+    // läser in all historik i sökindexet innan första klienten släpps in
+    private void buildSearchIndex() {
+        if (searchable == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        long indexed = searchable.buildIndex();
+        System.out.println("🔎 Sökindex klart: " + indexed + " meddelanden på "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    /**
+     * /search, meddelanden som innehåller alla ord
+     * @return nyaste först, null om sökning är avstängd
+     */
+    List<Message> search(String query, int limit) {
+        if (searchable == null) {
+            return null;
+        }
+        // det som ligger i skrivkön ska också gå att hitta
+        messageDAO.flush();
+        return searchable.search(query, limit);
+    }
+
+    /**
+     * executorn som kör varje ClientHandler i thread- och virtual-läget.
+     * varje klient får alltid en egen tråd, skillnaden är om det är en
+     * plattformstråd eller en virtuell tråd.
+     */
+    private ExecutorService clientExecutor() {
+        if (mode == ServerMode.VIRTUAL) {
+            ExecutorService virtual = ThreadUtil.virtualThreadExecutor();
+            if (virtual != null) {
+                return virtual;
+            }
+            System.out.println("⚠️ Virtuella trådar kräver Java 21, kör med vanliga trådar istället.");
+        }
+        return Executors.newCachedThreadPool(ThreadUtil.namedFactory("chat-client"));
+    }
+
+    // några få selector-trådar istället för en tråd per klient
+    private void startNio() {
+        ServerConfig config = ServerConfig.getInstance();
+        int eventLoops = config.getInt("server.nio.eventLoops", 0);
+        if (eventLoops <= 0) {
+            eventLoops = Runtime.getRuntime().availableProcessors();
+        }
+        int workers = config.getInt("server.nio.workers", 16);
+        try {
+            new NioServer(this, port, eventLoops, workers).start();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void shutdown() {
+        authenticator.shutdown();
+        daoExecutor.shutdown();
+        int pending = messageDAO.pending();
+        if (pending > 0) {
+            System.out.println("💾 Sparar " + pending + " meddelanden innan servern stängs...");
+        }
+        messageDAO.close();
+        if (messageStore instanceof MappedLogMessageDAO log) {
+            log.close();
+        }
+        DatabaseUtil.getInstance().close();
+    }
+
+    Authenticator getAuthenticator() {
+        return authenticator;
+    }
+
+    AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    SessionTokens getSessions() {
+        return sessions;
+    }
+
+    AsyncMessageDAO getAsyncMessageDAO() {
+        return asyncMessages;
+    }
+
+    MessageDAO getMessageDAO() {
+        return historyCache != null ? historyCache : messageDAO;
+    }
+
+    // writer-tråden för en klient körs på samma executor som klienten själv
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(outboundCapacity, overflowPolicy, coalesceMaxBytes);
+    }
+
+    /**
+     * skriver köstatistik till konsolen med jämna mellanrum om
+     * server.metrics.intervalSeconds är satt
+     */
+    private void startMetrics() {
+        int interval = ServerConfig.getInstance().getInt("server.metrics.intervalSeconds", 0);
+        if (interval <= 0) {
+            return;
+        }
+        ScheduledExecutorService scheduler =
+                Executors.newSingleThreadScheduledExecutor(ThreadUtil.namedFactory("chat-metrics"));
+        scheduler.scheduleAtFixedRate(this::logQueueMetrics, interval, interval, TimeUnit.SECONDS);
+    }
+
+    void logQueueMetrics() {
+        int total = 0;
+        int deepest = 0;
+        String deepestName = "-";
+        long dropped = 0;
+        long coalesced = 0;
         for (ClientHandler client : clients) {
-        if (client != sender) {
+            OutboundQueue queue = client.getOutboundQueue();
+            if (queue == null) {
+                continue;
+            }
+            int depth = queue.depth();
+            total += depth;
+            dropped += queue.dropped();
+            coalesced += queue.coalesced();
+            if (depth > deepest) {
+                deepest = depth;
+                deepestName = client.getUser() != null ? client.getUser().getUsername() : "?";
+            }
+        }
+        System.out.println("📊 Klienter: " + clients.size() + ", köade rader: " + total
+                + ", djupaste kö: " + deepest + " (" + deepestName + ")"
+                + ", tappade: " + dropped + ", sammanslagna: " + coalesced
+                + ", osparade meddelanden: " + messageDAO.pending());
+        if (historyCache != null) {
+            System.out.println("📜 Historikcache: " + historyCache.users() + " användare, " + historyCache.used()
+                    + " platser, träffar: " + historyCache.hits() + ", missar: " + historyCache.misses()
+                    + ", släppta: " + historyCache.evictedUsers());
+        }
+        if (searchable != null) {
+            System.out.println(searchable.getIndex().summary());
+        }
+        if (userDAO instanceof CachingUserDAO cache) {
+            System.out.println("👤 Användarcache: " + cache.size() + " st, träffar: " + cache.hits()
+                    + ", missar: " + cache.misses() + ", utkastade: " + cache.evictions());
+        }
+        System.out.println("🗄️ DAO-trådar: " + daoExecutor.getActiveCount() + " aktiva, "
+                + daoExecutor.getQueue().size() + " i kö");
+        System.out.println(authenticator.summary());
+        if (usernames != null) {
+            System.out.println(usernames.summary());
+        }
+        System.out.println(admission.summary());
+        if (sessions != null) {
+            System.out.println("🔑 Sessioner: " + sessions.size());
+        }
+        System.out.println(DatabaseUtil.getInstance().getMetrics().summary());
+    }
 
+    void addClient(ClientHandler client) {
+        clients.add(client);
+    }
 
-            client.sendMessage(sender.getUser().getUsername() + ": " + message);
+    private static String nameKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * lägger in en nyss inloggad klient i namnindexet.
+     * är kontot redan online avgör server.duplicateLogin vem som får stanna.
+     * @return false om inloggningen nekas (REJECT)
+     */
+    boolean userLoggedIn(ClientHandler client) {
+        String key = nameKey(client.getUser().getUsername());
+        if (duplicateLogin == DuplicateLogin.REJECT) {
+            ClientHandler existing = usersByName.putIfAbsent(key, client);
+            return existing == null || existing == client;
+        }
+        ClientHandler previous = usersByName.put(key, client);
+        if (previous != null && previous != client) {
+            previous.kick("⚠️ Du loggades in från en annan anslutning. Hejdå! 👋");
         }
+        return true;
+    }
 
+    // hitta en inloggad användare, skiftläget spelar ingen roll
+    public ClientHandler findUser(String username) {
+        return usersByName.get(nameKey(username));
+    }
+    Room joinRoom(String roomName, ClientHandler client) {
+        return rooms.join(roomName, client);
+    }
+
+    void leaveRoom(Room room, ClientHandler client) {
+        rooms.leave(room, client);
+    }
+
+    List<Room> rooms() {
+        return rooms.rooms();
+    }
+
+    /**
+     * broadcast till alla i avsändarens rum.
+     * framen kodas högst en gång per protokoll (text och binärt), alla mottagare
+     * delar sedan samma read-only buffert istället för en egen kodning var
+     */
+    void broadcast(Frame frame, ClientHandler sender) {
+        Room room = sender.getRoom();
+        if (room == null) {
+            return;
+        }
+        sendToRoom(room, frame, sender);
+        AsyncLog.info("Meddelande från " + frame.toTextLine() + " i #" + room.getName());
+    }
+
+    // skickar till alla i rummet utom except (som kan vara null)
+    void sendToRoom(Room room, Frame frame, ClientHandler except) {
+        for (ClientHandler client : room.members()) {
+            if (client != except) {
+                client.deliver(frame);
+            }
         }
     }
 
     void removeClient(ClientHandler client) {
-        clients.remove(client);
-        System.out.println(client.getUser().getUsername() + " kopplade från.");
+        // bara första gången, platsen i admission ska lämnas tillbaka en gång
+        if (clients.remove(client)) {
+            admission.release(client.getAddress());
+        }
+        if (client.getUser() != null) {
+            // bara om det är just den här anslutningen, en ny inloggning kan redan ha tagit över
+            usersByName.remove(nameKey(client.getUser().getUsername()), client);
+        }
+        // klienten kan ha kopplat från innan den hann logga in
+        String name = client.getUser() != null ? client.getUser().getUsername() : "En okänd klient";
+        AsyncLog.info(name + " kopplade från.");
     }
 
 
 }
-
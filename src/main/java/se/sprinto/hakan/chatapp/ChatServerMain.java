@@ -1,7 +1,17 @@
 package se.sprinto.hakan.chatapp;
 
+import se.sprinto.hakan.chatapp.util.SchemaManager;
+import se.sprinto.hakan.chatapp.util.ServerConfig;
+
 public class ChatServerMain {
     public static void main(String[] args) {
-        new ChatServer(5555).start();
+        ServerConfig config = ServerConfig.getInstance();
+        int port = config.getInt("server.port", 5555);
+        ServerMode mode = config.getEnum("server.mode", ServerMode.THREAD);
+        // tabeller och index skapas/uppdateras innan första klienten kan ansluta
+        if (Boolean.parseBoolean(config.getString("server.schema.migrate", "true"))) {
+            SchemaManager.migrate();
+        }
+        new ChatServer(port, mode).start();
     }
 }
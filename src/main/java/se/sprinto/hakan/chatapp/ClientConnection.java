@@ -0,0 +1,27 @@
+package se.sprinto.hakan.chatapp;
+
+import se.sprinto.hakan.chatapp.protocol.Frame;
+
+/**
+ * Transporten under en ClientHandler.
+ * ClientHandler bryr sig inte om det är en blockerande socket eller en nio-kanal,
+ * eller om klienten pratar text eller binärt. Den skickar bara Frames och
+ * stänger när klienten är klar, anslutningen kodar enligt klientens protokoll.
+ * Allt som skickas går via klientens egen OutboundQueue.
+ */
+interface ClientConnection {
+
+    // svar till klienten själv, väntar en stund om kön är full
+    void send(Frame frame);
+
+    /**
+     * meddelande från någon annan (broadcast). väntar aldrig, är kön full gäller
+     * OverflowPolicy. samma Frame delas av alla mottagare och kodas bara en gång per protokoll.
+     */
+    void offer(Frame frame);
+
+    // stänger när allt som redan skickats har gått ut
+    void close();
+
+    OutboundQueue outbound();
+}
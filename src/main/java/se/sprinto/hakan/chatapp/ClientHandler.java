@@ -3,175 +3,659 @@ package se.sprinto.hakan.chatapp;
 import se.sprinto.hakan.chatapp.dao.*;
 import se.sprinto.hakan.chatapp.model.Message;
 import se.sprinto.hakan.chatapp.model.User;
+import se.sprinto.hakan.chatapp.protocol.Frame;
+import se.sprinto.hakan.chatapp.search.SearchIndex;
+import se.sprinto.hakan.chatapp.util.TokenBucket;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.time.LocalDateTime;
 import java.util.List;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Inloggning, registrering och chatt för EN klient.
+ * Dialogen är en tillståndsmaskin som matas med en rad i taget via handleLine(),
+ * så samma kod kan köras både av en egen tråd (thread-läget, se run())
+ * och av nio-läget där raderna kommer från en event loop.
+ */
 public class ClientHandler implements Runnable {
 
-    private final Socket socket;
-    private final ChatServer server;
-    private PrintWriter out;
-    private User user;
+    // var i dialogen klienten befinner sig, dvs vilken rad vi väntar på
+    private enum State {
+        ACCOUNT_QUESTION,
+        LOGIN_USERNAME,
+        LOGIN_PASSWORD,
+        LOGIN_FETCH_QUESTION,
+        REGISTER_USERNAME,
+        REGISTER_PASSWORD,
+        CHAT,
+        CLOSED
+    }
 
-    private final UserDAO userDAO = new UserDatabaseDAO();
-    private final MessageDAO messageDAO = new MessageDatabaseDAO();
+    private final SocketChannel channel;
+    private final ChatServer server;
+    private ClientConnection connection;
+    private volatile User user;
+    private volatile Room room;
+    private volatile State state = State.ACCOUNT_QUESTION;
+    private final AtomicBoolean disconnected = new AtomicBoolean();
+
+    // /mymsgs och /more, storlek på sidan och var nästa sida börjar
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 200;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private Message oldestShown;
+    private boolean moreHistory;
+
+    // max antal träffar som /search visar
+    private static final int SEARCH_LIMIT = 10;
+
+    // sparas mellan raderna i inloggnings/registreringsdialogen
+    private String pendingUsername;
+
+    // klientens IP, inloggningsförsök räknas per adress
+    private final InetAddress address;
+    private final AdmissionControl admission;
+    // chattrader för just den här anslutningen, null = obegränsat
+    private final TokenBucket messageBucket;
+
+    private final Authenticator authenticator;
+    // null om sessionsnycklar är avstängda
+    private final SessionTokens sessions;
+    private volatile SessionTokens.Session session;
+    private final MessageDAO messageDAO;
+    private final AsyncMessageDAO asyncMessages;
+
+    ClientHandler(SocketChannel channel, ChatServer server, InetAddress address) {
+        this.channel = channel;
+        this.server = server;
+        this.address = address;
+        this.admission = server.getAdmission();
+        this.messageBucket = admission.newMessageBucket();
+        this.authenticator = server.getAuthenticator();
+        this.sessions = server.getSessions();
+        this.messageDAO = server.getMessageDAO();
+        this.asyncMessages = server.getAsyncMessageDAO();
+    }
 
-    ClientHandler(Socket socket, ChatServer server) {
-        this.socket = socket;
+    ClientHandler(ClientConnection connection, ChatServer server, InetAddress address) {
+        this.channel = null;
+        this.connection = connection;
         this.server = server;
+        this.address = address;
+        this.admission = server.getAdmission();
+        this.messageBucket = admission.newMessageBucket();
+        this.authenticator = server.getAuthenticator();
+        this.sessions = server.getSessions();
+        this.messageDAO = server.getMessageDAO();
+        this.asyncMessages = server.getAsyncMessageDAO();
+    }
+
+    InetAddress getAddress() {
+        return address;
     }
 
     public User getUser() {
         return user;
     }
 
+    Room getRoom() {
+        return room;
+    }
+
+    /**
+     * thread/virtual-läget: läser från kanalen tills klienten stänger eller skriver /quit
+     */
     @Override
     public void run() {
-        try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                PrintWriter writer = new PrintWriter(socket.getOutputStream(), true)
-
-        ) {
-            this.out = writer;
-
-            writer.println("\uD83C\uDF38✨Välkommen! Har du redan ett konto? (ja/nej)\uD83C\uDF38✨");
-            String answer;
-            while (true) {
-                answer = in.readLine();
-                if (answer == null)
-                    return;
-                if (answer.equalsIgnoreCase("ja") || answer.equalsIgnoreCase("nej")) {
-                    break;
-                } else {
-                    writer.println("Skriv 'ja' eller 'nej' tack! 💗");
+        try {
+            SocketConnection socketConnection = new SocketConnection(channel, server.newOutboundQueue());
+            this.connection = socketConnection;
+            // egen writer så att den som skickar till oss aldrig väntar på vår socket
+            server.execute(socketConnection::writeLoop);
+            onConnect();
+
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            try {
+                while (state != State.CLOSED && channel.read(buffer) != -1) {
+                    buffer.flip();
+                    socketConnection.decode(buffer, this::handleLine);
+                    buffer.clear();
                 }
+            } finally {
+                socketConnection.releaseDecoder();
+            }
+        } catch (IOException e) {
+            // stängde vi själva (t.ex /quit eller utsparkad) är det inget problem
+            if (state != State.CLOSED) {
+                System.out.println("Problem med klient: " + e.getMessage());
             }
+        } finally {
+            onDisconnect();
+        }
+    }
 
+    void onConnect() {
+        sendMessage("🌸✨Välkommen! Har du redan ett konto? (ja/nej)🌸✨");
+    }
 
-            //==============INLOGGNING====================
-                if ("ja".equalsIgnoreCase(answer)) {
-                    user = null;
-                    while (user == null) {
-                        writer.println("Ange användarnamn:");
-                        String username = in.readLine();
-                        if (username == null) return;
-
-                        writer.println("Ange lösenord:");
-                        String password = in.readLine();
-                        if (password == null) return;
-
-                       user = userDAO.login(username, password);
-                       // user =((UserDatabaseDAO) userDAO).loginWithMessages(username, password);
-
-                        if (user == null) {
-                            writer.println("❌💔 Fel användarnamn eller lösenord.");
-                            writer.println("Avslutar sessionen. Försök igen! 🌸");
-
-                        } else {
-                            //tillagd av mig och return;
-                            writer.println("Välkommen tillbaka, " + user.getUsername() + "!");
-                            // ger användaer valmöjlighet (VG baserat)
-                            writer.println("Vill du hämta dina meddelanden direkt (ja/nej)");
-                            String fetchMsgs = in.readLine();
-                            boolean loadMessages = fetchMsgs != null && fetchMsgs.equalsIgnoreCase("ja");
-
-                            if (loadMessages) {
-                                User fullUser = ((UserDatabaseDAO) userDAO)
-                                        .loginWithMessages(user.getUsername(), password);
-                                if (fullUser != null) {
-                                    user = fullUser;
-                                }
-                                List<Message> messages = user.getMessages();
-                                if (!messages.isEmpty()) {
-                                    out.println("\uD83D\uDCDC Dina sparade meddelanden: ");
-                                    for (Message m : messages) {
-                                        out.println("[" + m.getTimestamp() + "] " + m.getText());
-                                    }
-                                } else {
-                                    out.println("\uD83D\uDCEDInga sparade meddelanden.");
-                                }
-                            } else {
-                                out.println("Du valde att logga in utan att hämta meddelanden.");
-                            }
-                        }
-                    }
-
-
-                    //===================REGISTRERING========================
-                } else if ("nej".equalsIgnoreCase(answer)) {
-                    user = null;
-                    while (user == null) {
-
-                        writer.println("Skapa nytt konto. Ange användarnamn:");
-                        String username = in.readLine();
-                        writer.println("Ange lösenord:");
-                        String password = in.readLine();
-
-                        user = userDAO.register(new User(username, password));
-                        if (user == null) {
-                            writer.println("❌💔Användarnamett är redan taget! försök igen");
-
-                        }
-                    }
-
-                    writer.println("✨🎀 Konto skapat. Välkommen, " + user.getUsername() + "! 🎀✨");
+    /**
+     * tar emot nästa rad från klienten och flyttar dialogen framåt
+     */
+    void handleLine(String line) {
+        try {
+            switch (state) {
+                case ACCOUNT_QUESTION -> handleAccountAnswer(line);
+                case LOGIN_USERNAME -> {
+                    pendingUsername = line;
+                    state = State.LOGIN_PASSWORD;
+                    sendMessage("Ange lösenord:");
                 }
-
-                //Chat info
-                writer.println("✅ Du är inloggad som: " + user.getUsername());
-                writer.println("Nu kan du börja skriva meddelanden 💬");
-                writer.println("Skriv /quit för att avsluta 💗");
-                writer.println("Skriv /mymsgs för att se dina sparade meddelanden 📜");
-
-                out.println(user.getUsername() + " anslöt.");
-
-                //huvudloop för chatwn
-                String message;
-                while ((message = in.readLine()) != null) {
-                    if (message.equalsIgnoreCase("/quit")) {
-                        writer.println("👋✨ Hejdå!");
-                        break;
-                    }
-                    if (message.equalsIgnoreCase("/mymsgs")) {
-                        // Hämta meddelanden för denna användare
-                        List<Message> messages = messageDAO.getMessagesByUserId(user.getId());
-                        if (messages.isEmpty()) {
-                            out.println("\uD83D\uDCEDInga sparade meddelanden.");
-                        } else {
-                            out.println("\uD83D\uDCDCDina meddelanden:");
-                            for (Message m : messages) {
-                                out.println("[" + m.getTimestamp() + "] " + m.getText());
-                            }
-                        }
-                        continue;
-                    }
-                    // broadkasta till andra användare
-                    server.broadcast("[" + user.getUsername() + "] " + message, this);
-                    // spara meddelande till databasen
-                    messageDAO.saveMessage(new Message(user.getId(), message, java.time.LocalDateTime.now()));
+                case LOGIN_PASSWORD -> handleLoginPassword(line);
+                case LOGIN_FETCH_QUESTION -> handleFetchAnswer(line);
+                case REGISTER_USERNAME -> {
+                    pendingUsername = line;
+                    state = State.REGISTER_PASSWORD;
+                    sendMessage("Ange lösenord:");
+                }
+                case REGISTER_PASSWORD -> handleRegisterPassword(line);
+                case CHAT -> handleChatLine(line);
+                case CLOSED -> {
                 }
+            }
+        } catch (RuntimeException e) {
+            // t.ex databasfel, samma som förut: klienten kopplas bort
+            System.out.println("Problem med klient: " + e.getMessage());
+            close();
+        }
+    }
 
+    private void handleAccountAnswer(String answer) {
+        if (answer.regionMatches(true, 0, "/resume ", 0, 8)) {
+            handleResume(answer.substring(8).trim());
+            return;
+        }
+        //==============INLOGGNING====================
+        if (answer.equalsIgnoreCase("ja")) {
+            state = State.LOGIN_USERNAME;
+            sendMessage("Ange användarnamn:");
+            //===================REGISTRERING========================
+        } else if (answer.equalsIgnoreCase("nej")) {
+            state = State.REGISTER_USERNAME;
+            sendMessage("Skapa nytt konto. Ange användarnamn:");
+        } else {
+            sendMessage("Skriv 'ja' eller 'nej' tack! 💗");
+        }
+    }
 
-            } catch(IOException e){
-                System.out.println("Problem med klient: " + e.getMessage());
-            } finally{
-                server.removeClient(this);
-                try {
-                    socket.close();
-                } catch (IOException ignored) {
-                }
+    /**
+     * /resume <nyckel>, tillbaka efter en bruten anslutning utan lösenord (och utan BCrypt)
+     */
+    private void handleResume(String token) {
+        SessionTokens.Session resumed = sessions != null ? sessions.resume(token) : null;
+        if (resumed == null) {
+            sendError("❌ Sessionen gäller inte längre, logga in igen.");
+            sendMessage("Har du redan ett konto? (ja/nej)");
+            return;
+        }
+        if (!setLoggedIn(resumed.user())) {
+            // nyckeln är inte förbrukad, den gamla anslutningen kan vara på väg bort
+            sessions.restore(resumed);
+            sendError("❌💔 " + resumed.user().getUsername() + " är redan inloggad någon annanstans.");
+            sendMessage("Har du redan ett konto? (ja/nej)");
+            return;
+        }
+        sendMessage("🔄 Välkommen tillbaka, " + user.getUsername() + "!");
+        enterChat(resumed.room());
+    }
+
+    private void handleLoginPassword(String password) {
+        if (authThrottled(State.LOGIN_USERNAME, "Ange användarnamn:")) {
+            return;
+        }
+        User loggedIn;
+        try {
+            loggedIn = await(authenticator.login(pendingUsername, password));
+        } catch (RejectedExecutionException e) {
+            serverBusy(State.LOGIN_USERNAME, "Ange användarnamn:");
+            return;
+        }
+        // user =((UserDatabaseDAO) userDAO).loginWithMessages(username, password);
+
+        if (loggedIn == null) {
+            sendError("❌💔 Fel användarnamn eller lösenord.");
+            sendMessage("Avslutar sessionen. Försök igen! 🌸");
+            pendingUsername = null;
+            state = State.LOGIN_USERNAME;
+            sendMessage("Ange användarnamn:");
+            return;
+        }
+        if (!setLoggedIn(loggedIn)) {
+            sendError("❌💔 " + loggedIn.getUsername() + " är redan inloggad någon annanstans.");
+            pendingUsername = null;
+            state = State.LOGIN_USERNAME;
+            sendMessage("Ange användarnamn:");
+            return;
+        }
+        //tillagd av mig och return;
+        sendMessage("Välkommen tillbaka, " + user.getUsername() + "!");
+        // ger användaer valmöjlighet (VG baserat)
+        sendMessage("Vill du hämta dina meddelanden direkt (ja/nej)");
+        state = State.LOGIN_FETCH_QUESTION;
+    }
+
+    private void handleFetchAnswer(String fetchMsgs) {
+        boolean loadMessages = fetchMsgs.equalsIgnoreCase("ja");
+
+        if (loadMessages) {
+            // strömmas direkt från databasen, inloggningen är redan klar så
+            // ingen ny lösenordskontroll (loginWithMessages) behövs
+            streamAllMessages("📜 Dina sparade meddelanden: ");
+        } else {
+            sendMessage("Du valde att logga in utan att hämta meddelanden.");
+        }
+        enterChat();
+    }
+
+    private void handleRegisterPassword(String password) {
+        if (authThrottled(State.REGISTER_USERNAME, "Skapa nytt konto. Ange användarnamn:")) {
+            return;
+        }
+        User registered;
+        try {
+            registered = await(authenticator.register(pendingUsername, password));
+        } catch (RejectedExecutionException e) {
+            serverBusy(State.REGISTER_USERNAME, "Skapa nytt konto. Ange användarnamn:");
+            return;
+        } catch (RuntimeException e) {
+            // t.ex databasfel: namnet är inte taget, klienten får försöka igen
+            System.out.println("Kunde inte registrera " + pendingUsername + ": " + e.getMessage());
+            sendError("❌ Något gick fel på servern, kontot skapades inte. Försök igen.");
+            pendingUsername = null;
+            state = State.REGISTER_USERNAME;
+            sendMessage("Skapa nytt konto. Ange användarnamn:");
+            return;
+        }
+        if (registered == null) {
+            sendError("❌💔Användarnamett är redan taget! försök igen");
+            state = State.REGISTER_USERNAME;
+            sendMessage("Skapa nytt konto. Ange användarnamn:");
+            return;
+        }
+        if (!setLoggedIn(registered)) {
+            // kontot finns nu, men någon hann logga in på det (duplicateLogin=reject)
+            sendError("❌💔 " + registered.getUsername() + " är redan inloggad någon annanstans.");
+            pendingUsername = null;
+            state = State.LOGIN_USERNAME;
+            sendMessage("Ange användarnamn:");
+            return;
+        }
+        sendMessage("✨🎀 Konto skapat. Välkommen, " + user.getUsername() + "! 🎀✨");
+        enterChat();
+    }
+
+    /**
+     * väntar på ett anrop som körs på serverns DAO- eller auth-trådar.
+     * ett fel i DAO:n kastas vidare som det är, precis som ett vanligt anrop
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * för många försök från samma IP på kort tid. svaret kommer direkt,
+     * utan BCrypt, och det hjälper inte att ansluta igen
+     */
+    private boolean authThrottled(State retry, String prompt) {
+        if (admission.tryAuth(address)) {
+            return false;
+        }
+        sendError("⏳ För många inloggningsförsök, vänta en stund och försök igen.");
+        pendingUsername = null;
+        state = retry;
+        sendMessage(prompt);
+        return true;
+    }
+
+    // kön till DAO- eller auth-trådarna är full, klienten får försöka igen istället för att hänga
+    private void serverBusy(State retry, String prompt) {
+        sendError("⏳ Servern är upptagen just nu, försök igen om en stund.");
+        pendingUsername = null;
+        state = retry;
+        sendMessage(prompt);
+    }
+
+    // sätter user och registrerar oss i serverns namnindex
+    private boolean setLoggedIn(User loggedIn) {
+        user = loggedIn;
+        if (!server.userLoggedIn(this)) {
+            user = null;
+            return false;
+        }
+        return true;
+    }
+
+    private void enterChat() {
+        enterChat(Message.DEFAULT_ROOM);
+    }
+
+    private void enterChat(String roomName) {
+        pendingUsername = null;
+        state = State.CHAT;
+
+        //Chat info
+        sendMessage("✅ Du är inloggad som: " + user.getUsername());
+        if (sessions != null) {
+            session = sessions.issue(user, roomName);
+            send(Frame.session(session.token()));
+        }
+        sendMessage("Nu kan du börja skriva meddelanden 💬");
+        sendMessage("Skriv /quit för att avsluta 💗");
+        sendMessage("Skriv /mymsgs [antal|all] för att se dina sparade meddelanden, /more för äldre 📜");
+        sendMessage("Skriv /msg <namn> <text> för ett privat meddelande 💌");
+        sendMessage("Skriv /join <rum>, /leave och /rooms för chattrum 🚪");
+        sendMessage("Skriv /search <ord> för att söka i chatthistoriken 🔎");
+        if (session != null) {
+            sendMessage("Tappar du anslutningen kan du komma tillbaka med /resume <nyckel> 🔑");
+        }
+
+        sendMessage(user.getUsername() + " anslöt.");
+        switchRoom(roomName);
+    }
+
+    // rumsnamn: bokstäver, siffror, - och _, max 32 tecken
+    private static boolean isValidRoomName(String name) {
+        return name.matches("[\\p{L}\\p{N}_-]{1,32}");
+    }
+
+    /**
+     * lämnar nuvarande rum och går in i ett nytt, visar de senaste meddelandena där
+     */
+    private void switchRoom(String roomName) {
+        Room current = room;
+        if (current != null && RoomRegistry.key(current.getName()).equals(RoomRegistry.key(roomName))) {
+            sendMessage("Du är redan i #" + current.getName() + ".");
+            return;
+        }
+        // historiken hämtas på DAO-trådarna medan vi byter rum
+        CompletableFuture<List<Message>> history = asyncMessages.getRecentMessagesByRoomAsync(roomName, 10);
+        if (current != null) {
+            server.leaveRoom(current, this);
+            server.sendToRoom(current, Frame.system("🚪 " + user.getUsername() + " lämnade #" + current.getName() + "."), this);
+        }
+        Room joined = server.joinRoom(roomName, this);
+        room = joined;
+        if (session != null) {
+            session.setRoom(joined.getName());
+        }
+        sendMessage("🚪 Du är nu i #" + joined.getName() + " (" + joined.size() + " online)");
+        List<Message> recent;
+        try {
+            recent = await(history);
+        } catch (RejectedExecutionException e) {
+            // servern är upptagen, rummet fungerar ändå utan historiken
+            recent = List.of();
+        }
+        for (Message m : recent) {
+            sendHistory(m);
+        }
+        server.sendToRoom(joined, Frame.system("🚪 " + user.getUsername() + " gick in i #" + joined.getName() + "."), this);
+    }
+
+    private void listRooms() {
+        sendMessage("🚪 Rum just nu:");
+        for (Room r : server.rooms()) {
+            sendMessage("  #" + r.getName() + " (" + r.size() + " online)");
+        }
+    }
+
+    //huvudloop för chatwn, en rad i taget
+    private void handleChatLine(String message) {
+        if (message.equalsIgnoreCase("/quit")) {
+            endSession();
+            sendMessage("👋✨ Hejdå!");
+            close();
+            return;
+        }
+        if (messageBucket != null && !messageBucket.tryAcquire()) {
+            admission.messageThrottled();
+            sendError("⏳ Du skriver för snabbt, raden skickades inte.");
+            return;
+        }
+        if (message.equalsIgnoreCase("/mymsgs") || message.regionMatches(true, 0, "/mymsgs ", 0, 8)) {
+            showMyMessages(message.substring(7).trim());
+            return;
+        }
+        if (message.equalsIgnoreCase("/more")) {
+            showMoreMessages();
+            return;
+        }
+        if (message.equalsIgnoreCase("/search") || message.regionMatches(true, 0, "/search ", 0, 8)) {
+            search(message.substring(7).trim());
+            return;
+        }
+        if (message.regionMatches(true, 0, "/msg ", 0, 5)) {
+            handlePrivateMessage(message.substring(5).trim());
+            return;
+        }
+        if (message.regionMatches(true, 0, "/join ", 0, 6)) {
+            String roomName = message.substring(6).trim();
+            if (!isValidRoomName(roomName)) {
+                sendError("❌ Rumsnamn får bara innehålla bokstäver, siffror, - och _ (max 32).");
+            } else {
+                switchRoom(roomName);
+            }
+            return;
+        }
+        if (message.equalsIgnoreCase("/leave")) {
+            switchRoom(Message.DEFAULT_ROOM);
+            return;
+        }
+        if (message.equalsIgnoreCase("/rooms")) {
+            listRooms();
+            return;
+        }
+        // broadkasta till andra användare i samma rum
+        server.broadcast(Frame.chat(user.getId(), user.getUsername(), message), this);
+        // spara meddelande till databasen (i bakgrunden, se WriteBehindMessageDAO)
+        messageDAO.saveMessage(new Message(user.getId(), room.getName(), message, LocalDateTime.now()));
+    }
+
+    // /mymsgs [antal], de senaste meddelandena
+    private void showMyMessages(String arg) {
+        if (arg.equalsIgnoreCase("all")) {
+            streamAllMessages("📜Dina meddelanden:");
+            return;
+        }
+        int size = DEFAULT_PAGE_SIZE;
+        if (!arg.isEmpty()) {
+            try {
+                size = Integer.parseInt(arg);
+            } catch (NumberFormatException e) {
+                size = -1;
+            }
+            if (size < 1 || size > MAX_PAGE_SIZE) {
+                sendError("❌ Skriv /mymsgs, /mymsgs <antal> (1-" + MAX_PAGE_SIZE + ") eller /mymsgs all.");
+                return;
             }
         }
+        pageSize = size;
+        oldestShown = null;
+        if (!showPage("📜Dina meddelanden:")) {
+            sendMessage("📭Inga sparade meddelanden.");
+        }
+    }
 
-        void sendMessage (String msg){
-            if (out != null) out.println(msg);
+    /**
+     * hela historiken, rad för rad medan databasen läser den.
+     * send() väntar om klientens kö är full, så en lång historik
+     * går i klientens takt utan att allt ligger i minnet
+     */
+    private void streamAllMessages(String header) {
+        int[] count = {0};
+        messageDAO.streamMessagesByUserId(user.getId(), m -> {
+            if (count[0]++ == 0) {
+                sendMessage(header);
+            }
+            sendHistory(m);
+        });
+        if (count[0] == 0) {
+            sendMessage("📭Inga sparade meddelanden.");
         }
     }
 
+    // /more, sidan före den som visades senast
+    private void showMoreMessages() {
+        if (oldestShown == null) {
+            sendMessage("Skriv /mymsgs först 📜");
+        } else if (!moreHistory || !showPage("📜Äldre meddelanden:")) {
+            sendMessage("📭Inga äldre meddelanden.");
+        }
+    }
 
+    /**
+     * visar nästa sida bakåt från oldestShown
+     * @return false om det inte fanns något att visa
+     */
+    private boolean showPage(String header) {
+        // en extra rad säger om det finns fler utan att räkna alla
+        List<Message> page = messageDAO.getMessagesByUserId(user.getId(), oldestShown, pageSize + 1);
+        moreHistory = page.size() > pageSize;
+        if (moreHistory) {
+            page = page.subList(1, page.size());
+        }
+        if (page.isEmpty()) {
+            return false;
+        }
+        sendMessage(header);
+        for (Message m : page) {
+            sendHistory(m);
+        }
+        oldestShown = page.get(0);
+        if (moreHistory) {
+            sendMessage("Skriv /more för äldre meddelanden 📜");
+        }
+        return true;
+    }
 
+    // /search <ord>, de nyaste meddelandena (i alla rum) som innehåller alla orden
+    private void search(String query) {
+        int terms = SearchIndex.tokenize(query).size();
+        if (terms == 0 || terms > SearchIndex.MAX_QUERY_TERMS) {
+            sendError("❌ Skriv /search <ord> (1-" + SearchIndex.MAX_QUERY_TERMS + " ord, minst 2 tecken långa).");
+            return;
+        }
+        List<Message> hits = server.search(query, SEARCH_LIMIT);
+        if (hits == null) {
+            sendError("❌ Sökning är avstängd på servern.");
+        } else if (hits.isEmpty()) {
+            sendMessage("🔎 Inga träffar på \"" + query + "\".");
+        } else {
+            sendMessage("🔎 Senaste träffarna på \"" + query + "\":");
+            for (Message m : hits) {
+                send(Frame.history(m.getTimestamp(), "#" + m.getRoom() + " " + m.getText()));
+            }
+        }
+    }
+
+    // /msg <namn> <text>, mottagaren slås upp direkt i serverns namnindex
+    private void handlePrivateMessage(String args) {
+        int space = args.indexOf(' ');
+        if (space <= 0 || args.substring(space + 1).isBlank()) {
+            sendMessage("Skriv så här: /msg <namn> <text> 💌");
+            return;
+        }
+        String targetName = args.substring(0, space);
+        String text = args.substring(space + 1).trim();
+        ClientHandler target = server.findUser(targetName);
+        if (target == null || target.getUser() == null) {
+            sendError("❌ " + targetName + " är inte online.");
+            return;
+        }
+        target.deliver(Frame.privateMessage(user.getId(), user.getUsername(), text));
+        sendMessage("💌 Skickat privat till " + target.getUser().getUsername() + ".");
+    }
+
+    /**
+     * kopplar bort klienten från en annan tråd, t.ex när samma konto loggar in igen
+     */
+    void kick(String reason) {
+        endSession();
+        deliver(Frame.system(reason));
+        close();
+    }
+
+    // nyckeln ska inte gå att använda efter /quit eller när någon annan tagit över kontot
+    private void endSession() {
+        SessionTokens.Session current = session;
+        if (current != null) {
+            sessions.revoke(current);
+        }
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        connection.close();
+    }
+
+    /**
+     * körs en gång när anslutningen är borta, oavsett varför
+     */
+    void onDisconnect() {
+        if (!disconnected.compareAndSet(false, true)) {
+            return;
+        }
+        state = State.CLOSED;
+        if (session != null) {
+            sessions.release(session);
+        }
+        Room current = room;
+        if (current != null) {
+            server.leaveRoom(current, this);
+        }
+        server.removeClient(this);
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    // svar till den här klienten
+    void sendMessage(String msg) {
+        send(Frame.system(msg));
+    }
+
+    // samma sak men som ERROR, så att klienten inte behöver leta efter ❌
+    private void sendError(String msg) {
+        send(Frame.error(msg));
+    }
+
+    private void sendHistory(Message m) {
+        send(Frame.history(m.getTimestamp(), m.getText()));
+    }
+
+    private void send(Frame frame) {
+        if (connection != null) connection.send(frame);
+    }
+
+    // meddelande från någon annan, får aldrig blockera avsändaren
+    void deliver(Frame frame) {
+        if (connection != null) connection.offer(frame);
+    }
+
+    OutboundQueue getOutboundQueue() {
+        return connection != null ? connection.outbound() : null;
+    }
+}
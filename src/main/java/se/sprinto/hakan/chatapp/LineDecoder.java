@@ -0,0 +1,59 @@
+package se.sprinto.hakan.chatapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Delar upp inkommande bytes i rader, precis som BufferedReader.readLine():
+ * \n eller \r\n avslutar en rad. Raderna avkodas som UTF-8.
+ * En rad kan komma i flera bitar, resten sparas tills nästa anrop.
+ * En instans per anslutning, den är inte trådsäker.
+ */
+class LineDecoder {
+
+    // skydd mot klienter som skickar en oändlig rad
+    static final int MAX_LINE_BYTES = 8192;
+
+    private byte[] pending = new byte[128];
+    private int length;
+
+    /**
+     * läser allt som finns kvar i bufferten och skickar varje hel rad till lines
+     * @throws IOException om en rad blir längre än MAX_LINE_BYTES
+     */
+    void decode(ByteBuffer in, Consumer<String> lines) throws IOException {
+        String line;
+        while ((line = next(in)) != null) {
+            lines.accept(line);
+        }
+    }
+
+    /**
+     * läser fram till och med nästa radbrytning
+     * @return raden, eller null om bufferten tog slut innan raden var klar
+     */
+    String next(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            if (b == '\n') {
+                int end = length;
+                if (end > 0 && pending[end - 1] == '\r') {
+                    end--;
+                }
+                length = 0;
+                return new String(pending, 0, end, StandardCharsets.UTF_8);
+            }
+            if (length == MAX_LINE_BYTES) {
+                throw new IOException("Raden är längre än " + MAX_LINE_BYTES + " bytes");
+            }
+            if (length == pending.length) {
+                pending = Arrays.copyOf(pending, Math.min(pending.length * 2, MAX_LINE_BYTES));
+            }
+            pending[length++] = b;
+        }
+        return null;
+    }
+}
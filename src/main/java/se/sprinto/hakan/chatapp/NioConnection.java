@@ -0,0 +1,222 @@
+package se.sprinto.hakan.chatapp;
+
+import se.sprinto.hakan.chatapp.protocol.Frame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * En klient i nio-läget.
+ * Läsning och skrivning sker bara på anslutningens event loop och blockerar aldrig.
+ * Hela rader skickas vidare till ClientHandler via en SerialExecutor,
+ * eftersom inloggning och sparande gör JDBC-anrop som inte får köras på loopen.
+ *
+ * Hinner ClientHandler inte med (t.ex en långsam databas) slutar loopen läsa
+ * från kanalen när MAX_PENDING_LINES rader väntar, och börjar igen när kön har
+ * gått ner till RESUME_PENDING_LINES. Då fylls socketbufferten och TCP bromsar
+ * klienten, istället för att raderna växer i minnet. Raderna från en läsning
+ * lämnas alltid över, så det kan bli högst en läsbuffert över gränsen.
+ */
+final class NioConnection implements ClientConnection {
+
+    static final int MAX_PENDING_LINES = 256;
+    static final int RESUME_PENDING_LINES = 64;
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private final SerialExecutor inbound;
+    private final ProtocolDecoder decoder;
+    // byts på worker-tråden i tur och ordning med raderna, läses av alla som skickar till oss
+    private volatile boolean binary;
+
+    // färdiga rader som väntar på att skrivas, fylls från vilken tråd som helst
+    private final OutboundQueue outbound;
+    // rader som skrivs just nu, bara loop-tråden rör den
+    private final WriteBatch batch = new WriteBatch();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean closeRequested;
+
+    // rader som lämnats till inbound men inte körts klart
+    private final AtomicInteger pendingLines = new AtomicInteger();
+    // bara loop-tråden rör dessa två, de bestämmer interestOps
+    private boolean readPaused;
+    private boolean writePending;
+
+    private SelectionKey key;
+    private ClientHandler handler;
+
+    NioConnection(SocketChannel channel, NioEventLoop loop, Executor workers, OutboundQueue outbound) {
+        this.channel = channel;
+        this.loop = loop;
+        this.outbound = outbound;
+        this.inbound = new SerialExecutor(workers);
+        this.decoder = new ProtocolDecoder(() -> inbound.execute(this::switchToBinary));
+    }
+
+    /**
+     * registrerar kanalen på loopen, måste köras på loop-tråden
+     */
+    void register(ClientHandler handler) throws ClosedChannelException {
+        this.handler = handler;
+        this.key = channel.register(loop.selector(), SelectionKey.OP_READ, this);
+        inbound.execute(handler::onConnect);
+    }
+
+    void onReadable(ByteBuffer buffer) {
+        try {
+            int read = channel.read(buffer);
+            if (read == -1) {
+                closeNow();
+                return;
+            }
+            buffer.flip();
+            decoder.decode(buffer, this::dispatch);
+            if (pendingLines.get() >= MAX_PENDING_LINES && !readPaused) {
+                readPaused = true;
+                updateInterest();
+            }
+        } catch (IOException e) {
+            System.out.println("Problem med klient: " + e.getMessage());
+            closeNow();
+        }
+    }
+
+    private void dispatch(String line) {
+        pendingLines.incrementAndGet();
+        inbound.execute(() -> {
+            try {
+                handler.handleLine(line);
+            } finally {
+                // bara den som passerar gränsen väcker loopen
+                if (pendingLines.decrementAndGet() == RESUME_PENDING_LINES) {
+                    loop.execute(this::resumeReading);
+                }
+            }
+        });
+    }
+
+    private void resumeReading() {
+        if (readPaused && !closed.get() && pendingLines.get() <= RESUME_PENDING_LINES) {
+            readPaused = false;
+            updateInterest();
+        }
+    }
+
+    // körs på loop-tråden
+    private void updateInterest() {
+        int ops = (readPaused ? 0 : SelectionKey.OP_READ) | (writePending ? SelectionKey.OP_WRITE : 0);
+        key.interestOps(ops);
+    }
+
+    // svaret går ut som text, allt efter det är binärt
+    private void switchToBinary() {
+        send(Frame.system(Frame.BINARY_ACK));
+        binary = true;
+    }
+
+    /**
+     * svar till klienten själv. körs på en worker-tråd, som får vänta en kort stund
+     * på plats i kön så att t.ex en lång /mymsgs-lista inte tappas
+     */
+    @Override
+    public void send(Frame frame) {
+        if (closed.get()) {
+            return;
+        }
+        try {
+            enqueued(outbound.put(frame.encode(binary), 1000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            enqueued(false);
+        }
+    }
+
+    @Override
+    public void offer(Frame frame) {
+        if (closed.get()) {
+            return;
+        }
+        enqueued(outbound.offer(frame.encodeShared(binary)));
+    }
+
+    private void enqueued(boolean accepted) {
+        if (!accepted) {
+            // DISCONNECT-policyn, klienten hänger inte med
+            loop.execute(this::closeNow);
+            return;
+        }
+        scheduleFlush();
+    }
+
+    @Override
+    public void close() {
+        closeRequested = true;
+        scheduleFlush();
+    }
+
+    @Override
+    public OutboundQueue outbound() {
+        return outbound;
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flush);
+        }
+    }
+
+    /**
+     * skriver så mycket som kanalen tar emot just nu.
+     * blir något kvar väntar vi på OP_WRITE istället för att blockera.
+     */
+    void flush() {
+        flushScheduled.set(false);
+        if (closed.get()) {
+            return;
+        }
+        try {
+            batch.fill(outbound);
+            while (!batch.isEmpty()) {
+                batch.writeTo(channel);
+                if (!batch.isEmpty()) {
+                    // socketbufferten är full, fortsätt när kanalen blir skrivbar
+                    writePending = true;
+                    updateInterest();
+                    return;
+                }
+                batch.fill(outbound);
+            }
+            writePending = false;
+            updateInterest();
+            if (closeRequested) {
+                closeNow();
+            }
+        } catch (IOException e) {
+            closeNow();
+        }
+    }
+
+    void closeNow() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        outbound.clear();
+        batch.clear();
+        decoder.release();
+        inbound.execute(handler::onDisconnect);
+    }
+}
@@ -0,0 +1,97 @@
+package se.sprinto.hakan.chatapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * En tråd med en egen Selector som sköter läsning och skrivning
+ * för alla anslutningar som hamnat på den.
+ * Andra trådar får aldrig röra selectorn direkt, de lägger in
+ * en uppgift med execute() och väcker loopen.
+ */
+final class NioEventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    // delas av alla anslutningar på loopen, bara loop-tråden läser in i den
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+
+    NioEventLoop() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                selector.select();
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            } catch (IOException e) {
+                System.out.println("Fel i event loop: " + e.getMessage());
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // en trasig uppgift får inte ta med sig loopen och alla andra anslutningar på den
+                System.out.println("Fel i uppgift på event loop: " + e);
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        Object attachment = key.attachment();
+        if (!key.isValid()) {
+            return;
+        }
+        if (attachment instanceof NioServer acceptor) {
+            try {
+                acceptor.accept();
+            } catch (RuntimeException e) {
+                System.out.println("Fel vid ny anslutning: " + e);
+            }
+            return;
+        }
+        NioConnection connection = (NioConnection) attachment;
+        try {
+            if (key.isReadable()) {
+                readBuffer.clear();
+                connection.onReadable(readBuffer);
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.flush();
+            }
+        } catch (RuntimeException e) {
+            // bara den här klienten kopplas bort, loopen fortsätter med de andra
+            System.out.println("Problem med klient: " + e);
+            connection.closeNow();
+        }
+    }
+}
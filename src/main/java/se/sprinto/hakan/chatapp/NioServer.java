@@ -0,0 +1,98 @@
+package se.sprinto.hakan.chatapp;
+
+import se.sprinto.hakan.chatapp.util.ThreadUtil;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * nio-läget för ChatServer.
+ * Första loopen tar emot nya anslutningar (OP_ACCEPT) och delar ut dem
+ * round-robin på alla loopar. Tusentals klienter klarar sig då med
+ * några få trådar istället för en tråd per klient.
+ */
+final class NioServer {
+
+    private final ChatServer server;
+    private final int port;
+    private final NioEventLoop[] loops;
+    private final ExecutorService workers;
+    private ServerSocketChannel serverChannel;
+    private int next;
+
+    NioServer(ChatServer server, int port, int eventLoops, int workerThreads) throws IOException {
+        this.server = server;
+        this.port = port;
+        this.loops = new NioEventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            loops[i] = new NioEventLoop();
+        }
+        this.workers = Executors.newFixedThreadPool(workerThreads, ThreadUtil.namedFactory("chat-worker"));
+    }
+
+    /**
+     * startar looparna och blockerar sedan på den första
+     */
+    void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(loops[0].selector(), SelectionKey.OP_ACCEPT, this);
+
+        for (int i = 1; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i], "chat-nio-" + i);
+            thread.start();
+        }
+        Thread.currentThread().setName("chat-nio-0");
+        loops[0].run();
+    }
+
+    /**
+     * körs på loop 0 när det finns nya anslutningar att ta emot
+     */
+    void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                // fortfarande blockerande, så att en nekad klient hinner få sitt svar
+                InetAddress address = server.admit(channel);
+                if (address == null) {
+                    continue;
+                }
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                NioEventLoop loop = loops[next++ % loops.length];
+                NioConnection connection = new NioConnection(channel, loop, workers, server.newOutboundQueue());
+                ClientHandler handler = new ClientHandler(connection, server, address);
+                server.addClient(handler);
+                SocketChannel accepted = channel;
+                loop.execute(() -> {
+                    try {
+                        connection.register(handler);
+                    } catch (ClosedChannelException e) {
+                        server.removeClient(handler);
+                        closeQuietly(accepted);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            System.out.println("Kunde inte ta emot anslutning: " + e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
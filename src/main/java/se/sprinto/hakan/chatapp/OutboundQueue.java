@@ -0,0 +1,199 @@
+package se.sprinto.hakan.chatapp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Begränsad kö med färdigkodade rader som väntar på att skickas till EN klient.
+ * Den som skickar lägger bara in i kön och går vidare, en egen skrivare
+ * (writer-tråden eller nio-loopen) tömmer den i klientens takt.
+ * En långsam klient fyller alltså bara sin egen kö och stoppar inte broadcast.
+ */
+final class OutboundQueue {
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final int coalesceMaxBytes;
+
+    private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private boolean closed;
+
+    // statistik för metrics, skrivs under låset och läses utan
+    private volatile int highWaterMark;
+    private volatile long dropped;
+    private volatile long coalesced;
+
+    OutboundQueue(int capacity, OverflowPolicy policy, int coalesceMaxBytes) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.coalesceMaxBytes = coalesceMaxBytes;
+    }
+
+    /**
+     * lägger till utan att någonsin vänta, är kön full gäller policyn
+     * @return false om klienten ska kopplas bort (DISCONNECT)
+     */
+    boolean offer(ByteBuffer frame) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (frames.size() < capacity) {
+                add(frame);
+                return true;
+            }
+            return makeRoom(frame);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * för klientens egna svar (t.ex /mymsgs): väntar en stund på plats i kön
+     * så att långa listor inte tappas, sedan gäller policyn som vanligt
+     */
+    boolean put(ByteBuffer frame, long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (frames.size() >= capacity && !closed && nanos > 0) {
+                nanos = notFull.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return offer(frame);
+    }
+
+    // körs under låset när kön är full, lägger in frame om policyn tillåter
+    private boolean makeRoom(ByteBuffer frame) {
+        switch (policy) {
+            case DISCONNECT:
+                return false;
+            case COALESCE:
+                ByteBuffer last = frames.peekLast();
+                if (last != null && last.remaining() + frame.remaining() <= coalesceMaxBytes) {
+                    ByteBuffer merged = ByteBuffer.allocate(last.remaining() + frame.remaining());
+                    merged.put(last.duplicate()).put(frame.duplicate()).flip();
+                    frames.pollLast();
+                    frames.addLast(merged);
+                    coalesced++;
+                    return true;
+                }
+                // sista blocket är redan fullt, gör som DROP_OLDEST
+            case DROP_OLDEST:
+            default:
+                frames.pollFirst();
+                dropped++;
+                add(frame);
+                return true;
+        }
+    }
+
+    private void add(ByteBuffer frame) {
+        frames.addLast(frame);
+        if (frames.size() > highWaterMark) {
+            highWaterMark = frames.size();
+        }
+        notEmpty.signal();
+    }
+
+    /**
+     * nästa rad att skriva utan att vänta, null om kön är tom
+     */
+    ByteBuffer poll() {
+        lock.lock();
+        try {
+            ByteBuffer frame = frames.pollFirst();
+            if (frame != null) {
+                notFull.signal();
+            }
+            return frame;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * väntar på nästa rad, null när kön är stängd och tömd
+     */
+    ByteBuffer take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (frames.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            ByteBuffer frame = frames.pollFirst();
+            if (frame != null) {
+                notFull.signal();
+            }
+            return frame;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * inget nytt tas emot, det som redan ligger i kön skrivs fortfarande ut
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // stänger och slänger allt, när anslutningen redan är död
+    void clear() {
+        lock.lock();
+        try {
+            closed = true;
+            frames.clear();
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int depth() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int highWaterMark() {
+        return highWaterMark;
+    }
+
+    long dropped() {
+        return dropped;
+    }
+
+    long coalesced() {
+        return coalesced;
+    }
+}
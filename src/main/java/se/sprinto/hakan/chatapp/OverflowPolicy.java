@@ -0,0 +1,13 @@
+package se.sprinto.hakan.chatapp;
+
+/**
+ * Vad som händer när en klients utgående kö är full, väljs med server.outbound.policy.
+ */
+public enum OverflowPolicy {
+    // släng det äldsta meddelandet i kön och lägg till det nya
+    DROP_OLDEST,
+    // klienten hänger inte med, koppla bort den
+    DISCONNECT,
+    // slå ihop det nya meddelandet med det sista i kön (en större skrivning istället för två)
+    COALESCE
+}
@@ -0,0 +1,66 @@
+package se.sprinto.hakan.chatapp;
+
+import se.sprinto.hakan.chatapp.protocol.BufferPool;
+import se.sprinto.hakan.chatapp.protocol.Frame;
+import se.sprinto.hakan.chatapp.protocol.FrameDecoder;
+import se.sprinto.hakan.chatapp.protocol.FrameType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Läser in det klienten skickar, oavsett protokoll.
+ * Alla klienter börjar med textrader. Är den allra första raden
+ * Frame.BINARY_HELLO byter anslutningen till binära frames, annars är det
+ * textprotokollet precis som förut (telnet, ChatClient).
+ * ClientHandler får samma rader i båda fallen.
+ * En instans per anslutning, den är inte trådsäker.
+ */
+final class ProtocolDecoder {
+
+    private final LineDecoder lineDecoder = new LineDecoder();
+    private final Runnable onBinary;
+    private FrameDecoder frameDecoder;
+    private boolean firstLine = true;
+
+    /**
+     * @param onBinary körs när klienten bett om binärt, innan nästa rad lämnas vidare
+     */
+    ProtocolDecoder(Runnable onBinary) {
+        this.onBinary = onBinary;
+    }
+
+    void decode(ByteBuffer in, Consumer<String> lines) throws IOException {
+        if (firstLine) {
+            String line = lineDecoder.next(in);
+            if (line == null) {
+                return;
+            }
+            firstLine = false;
+            if (line.equals(Frame.BINARY_HELLO)) {
+                frameDecoder = new FrameDecoder(BufferPool.shared());
+                onBinary.run();
+            } else {
+                lines.accept(line);
+            }
+        }
+        if (frameDecoder == null) {
+            lineDecoder.decode(in, lines);
+            return;
+        }
+        frameDecoder.decode(in, frame -> {
+            // klienten skickar bara INPUT, allt annat ignoreras
+            if (frame.getType() == FrameType.INPUT) {
+                lines.accept(frame.getText());
+            }
+        });
+    }
+
+    // lämnar tillbaka en eventuell halv frame till poolen
+    void release() {
+        if (frameDecoder != null) {
+            frameDecoder.release();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package se.sprinto.hakan.chatapp;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ett chattrum med sin egen trådsäkra medlemsmängd.
+ * Ett meddelande går bara till medlemmarna i rummet, så det kostar
+ * lika mycket som rummets storlek och inte hela serverns.
+ */
+final class Room {
+
+    private final String name;
+    private final Set<ClientHandler> members = ConcurrentHashMap.newKeySet();
+
+    Room(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Set<ClientHandler> members() {
+        return members;
+    }
+
+    int size() {
+        return members.size();
+    }
+}
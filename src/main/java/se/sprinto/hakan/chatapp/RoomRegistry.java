@@ -0,0 +1,74 @@
+package se.sprinto.hakan.chatapp;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Alla rum på servern, uppdelade på flera mindre ConcurrentHashMaps (shards).
+ * Rummets namn avgör vilken shard det hamnar i, så join/leave i olika rum
+ * slåss inte om samma map (storleksräknare, omhashning osv).
+ * Tomma rum tas bort, lobbyn skapas igen så fort någon går in.
+ */
+final class RoomRegistry {
+
+    private final ConcurrentHashMap<String, Room>[] shards;
+    private final int mask;
+
+    @SuppressWarnings("unchecked")
+    RoomRegistry(int shardCount) {
+        // avrunda upp till en tvåpotens så att vi kan maska istället för modulo
+        int size = Integer.highestOneBit(Math.max(1, shardCount - 1)) << 1;
+        shards = new ConcurrentHashMap[size];
+        for (int i = 0; i < size; i++) {
+            shards[i] = new ConcurrentHashMap<>();
+        }
+        mask = size - 1;
+    }
+
+    static String key(String roomName) {
+        return roomName.toLowerCase(Locale.ROOT);
+    }
+
+    private ConcurrentHashMap<String, Room> shardFor(String key) {
+        int h = key.hashCode();
+        return shards[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * lägger till klienten i rummet, skapar rummet om det inte finns.
+     * compute() gör att ett rum aldrig kan tas bort mitt i en join.
+     */
+    Room join(String roomName, ClientHandler client) {
+        String key = key(roomName);
+        return shardFor(key).compute(key, (k, room) -> {
+            if (room == null) {
+                room = new Room(roomName);
+            }
+            room.members().add(client);
+            return room;
+        });
+    }
+
+    void leave(Room room, ClientHandler client) {
+        String key = key(room.getName());
+        shardFor(key).computeIfPresent(key, (k, current) -> {
+            current.members().remove(client);
+            return current.size() == 0 ? null : current;
+        });
+    }
+
+    /**
+     * alla rum som har någon i sig, störst först
+     */
+    List<Room> rooms() {
+        List<Room> rooms = new ArrayList<>();
+        for (ConcurrentHashMap<String, Room> shard : shards) {
+            rooms.addAll(shard.values());
+        }
+        rooms.sort(Comparator.comparingInt(Room::size).reversed());
+        return rooms;
+    }
+}
@@ -0,0 +1,50 @@
+package se.sprinto.hakan.chatapp;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Kör uppgifter en i taget och i ordning, ovanpå en delad pool.
+ * Varje nio-anslutning har en egen så att raderna från en klient
+ * aldrig körs parallellt, men många klienter delar samma få trådar.
+ */
+final class SerialExecutor implements Executor {
+
+    // max antal uppgifter per körning innan vi släpper tråden till någon annan
+    private static final int BATCH = 64;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Executor pool;
+
+    SerialExecutor(Executor pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        schedule();
+    }
+
+    private void schedule() {
+        if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+            pool.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            Runnable task;
+            int count = 0;
+            while (count++ < BATCH && (task = tasks.poll()) != null) {
+                task.run();
+            }
+        } finally {
+            scheduled.set(false);
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package se.sprinto.hakan.chatapp;
+
+/**
+ * Hur servern kör sina klientanslutningar, väljs med server.mode vid start.
+ */
+public enum ServerMode {
+    // en vanlig plattformstråd per klient som blockerar i read()
+    THREAD,
+    // en virtuell tråd per klient (Java 21+), read() och JDBC parkerar istället för att låsa en OS-tråd
+    VIRTUAL,
+    // några få event loops med Selector, logiken körs på en liten worker-pool
+    NIO
+}
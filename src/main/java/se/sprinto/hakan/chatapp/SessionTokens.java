@@ -0,0 +1,129 @@
+package se.sprinto.hakan.chatapp;
+
+import se.sprinto.hakan.chatapp.model.User;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sessionsnycklar så att en klient som tappar anslutningen kan komma tillbaka
+ * med /resume &lt;nyckel&gt; istället för användarnamn och lösenord, utan BCrypt.
+ *
+ * En nyckel är 24 slumpade byte (base64), uppslaget är ett enda get i en
+ * ConcurrentHashMap. Varje nyckel går att använda en gång, vid /resume får
+ * klienten en ny. Så länge anslutningen lever gäller nyckeln, när den bryts
+ * gäller den i ttl till.
+ */
+class SessionTokens {
+
+    static final class Session {
+        private final String token;
+        private final User user;
+        private volatile String room;
+        // när anslutningen bröts (nanoTime), gäller bara om released är satt
+        private volatile long releasedAt;
+        private volatile boolean released;
+
+        private Session(String token, User user, String room) {
+            this.token = token;
+            this.user = user;
+            this.room = room;
+        }
+
+        String token() {
+            return token;
+        }
+
+        User user() {
+            return user;
+        }
+
+        // rummet klienten var i, dit kommer den tillbaka efter /resume
+        String room() {
+            return room;
+        }
+
+        void setRoom(String room) {
+            this.room = room;
+        }
+    }
+
+    private static final int TOKEN_BYTES = 24;
+    // hur ofta issue() städar bort gamla nycklar
+    private static final int PURGE_EVERY = 256;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long ttlNanos;
+    private final AtomicLong issued = new AtomicLong();
+
+    SessionTokens(long ttl, TimeUnit unit) {
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * ny nyckel för en inloggad användare
+     */
+    Session issue(User user, String room) {
+        if (issued.incrementAndGet() % PURGE_EVERY == 0) {
+            purgeExpired();
+        }
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        Session session = new Session(token, user, room);
+        sessions.put(token, session);
+        return session;
+    }
+
+    /**
+     * tar bort nyckeln och returnerar sessionen om den fortfarande gäller
+     * @return null om nyckeln är okänd, redan använd eller för gammal
+     */
+    Session resume(String token) {
+        Session session = sessions.remove(token);
+        if (session == null || expired(session, System.nanoTime())) {
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * lägger tillbaka en nyckel från resume() när inloggningen ändå inte gick,
+     * t.ex för att den gamla anslutningen inte har släppt än (duplicateLogin=reject).
+     * klienten kan då försöka igen med samma nyckel
+     */
+    void restore(Session session) {
+        sessions.putIfAbsent(session.token, session);
+    }
+
+    private boolean expired(Session session, long now) {
+        return session.released && now - session.releasedAt > ttlNanos;
+    }
+
+    /**
+     * anslutningen bröts, nyckeln gäller ttl till
+     */
+    void release(Session session) {
+        session.releasedAt = System.nanoTime();
+        session.released = true;
+    }
+
+    // /quit eller utsparkad, nyckeln slutar gälla direkt
+    void revoke(Session session) {
+        sessions.remove(session.token, session);
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    void purgeExpired() {
+        long now = System.nanoTime();
+        sessions.values().removeIf(session -> expired(session, now));
+    }
+}
@@ -0,0 +1,121 @@
+package se.sprinto.hakan.chatapp;
+
+import se.sprinto.hakan.chatapp.protocol.Frame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.function.Consumer;
+
+/**
+ * Blockerande transport, en SocketChannel i blockerande läge.
+ * Används i thread- och virtual-läget där varje klient har sin egen tråd.
+ *
+ * Ingen skriver till kanalen direkt, allt läggs i OutboundQueue och
+ * writeLoop() (klientens egen writer-tråd) tömmer kön. Det finns alltså bara
+ * en skrivare och inget lås runt själva skrivningen, vilket också betyder att
+ * en virtuell tråd aldrig blockerar inuti synchronized (pinning) som med PrintWriter.
+ */
+class SocketConnection implements ClientConnection {
+
+    // hur länge ett svar till klienten själv får vänta på plats i kön
+    private static final long REPLY_TIMEOUT_MILLIS = 5000;
+
+    private final SocketChannel channel;
+    private final OutboundQueue outbound;
+    private final ProtocolDecoder decoder = new ProtocolDecoder(this::switchToBinary);
+    // sätts bara av läs-tråden, läses av alla som skickar till oss
+    private volatile boolean binary;
+
+    SocketConnection(SocketChannel channel, OutboundQueue outbound) {
+        this.channel = channel;
+        this.outbound = outbound;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * delar upp det som lästs i rader, körs bara av läs-tråden
+     */
+    void decode(ByteBuffer in, Consumer<String> lines) throws IOException {
+        decoder.decode(in, lines);
+    }
+
+    // när läs-tråden är klar
+    void releaseDecoder() {
+        decoder.release();
+    }
+
+    // svaret går ut som text, allt efter det är binärt
+    private void switchToBinary() {
+        send(Frame.system(Frame.BINARY_ACK));
+        binary = true;
+    }
+
+    @Override
+    public void send(Frame frame) {
+        try {
+            if (!outbound.put(frame.encode(binary), REPLY_TIMEOUT_MILLIS)) {
+                abort();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+        }
+    }
+
+    @Override
+    public void offer(Frame frame) {
+        if (!outbound.offer(frame.encodeShared(binary))) {
+            // DISCONNECT-policyn: stäng direkt, läsloopen städar upp
+            abort();
+        }
+    }
+
+    @Override
+    public void close() {
+        // writeLoop skriver ut det som är kvar och stänger sedan kanalen
+        outbound.close();
+    }
+
+    @Override
+    public OutboundQueue outbound() {
+        return outbound;
+    }
+
+    /**
+     * klientens writer-tråd. tar allt som ligger i kön och skriver det
+     * med en gathering write, så en broadcast-storm blir få syscalls.
+     */
+    void writeLoop() {
+        WriteBatch batch = new WriteBatch();
+        try {
+            ByteBuffer frame;
+            while ((frame = outbound.take()) != null) {
+                batch.add(frame);
+                batch.fill(outbound);
+                while (!batch.isEmpty()) {
+                    batch.writeTo(channel);
+                    batch.fill(outbound);
+                }
+            }
+        } catch (IOException e) {
+            // klienten är borta, läsloopen märker det också
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            batch.clear();
+            abort();
+        }
+    }
+
+    private void abort() {
+        outbound.clear();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package se.sprinto.hakan.chatapp;
+
+import se.sprinto.hakan.chatapp.util.BloomFilter;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Vet ungefär vilka användarnamn som är tagna, så att en registrering med
+ * ett upptaget namn kan nekas innan lösenordet hashas.
+ *
+ * Ett bloomfilter fylls med alla namn när servern startar och varje nytt namn
+ * läggs till. Säger filtret nej är namnet ledigt. Säger det kanske finns namnet
+ * antingen bland de som registrerats eller nekats nyligen (då vet vi säkert),
+ * annars får databasen avgöra.
+ *
+ * Namn som en annan server registrerat syns inte här, de fångas av
+ * databasens unika index som förut (kostar bara en onödig hash).
+ */
+class UsernameFilter {
+
+    enum Answer {
+        // finns säkert inte, gå direkt till BCrypt
+        FREE,
+        // finns säkert, neka direkt
+        TAKEN,
+        // kanske, fråga databasen
+        MAYBE
+    }
+
+    private final BloomFilter filter;
+    // namn som är tagna enligt den här servern sedan start, töms när den blir för stor
+    private final Set<String> recent = ConcurrentHashMap.newKeySet();
+    private final int recentCapacity;
+
+    private final LongAdder free = new LongAdder();
+    private final LongAdder taken = new LongAdder();
+    private final LongAdder maybe = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    UsernameFilter(long expectedNames, double falsePositiveRate, int recentCapacity) {
+        this.filter = new BloomFilter(expectedNames, falsePositiveRate);
+        this.recentCapacity = recentCapacity;
+    }
+
+    // vid start, namn som redan finns i databasen
+    void seed(String username) {
+        filter.add(key(username));
+    }
+
+    /**
+     * namnet är taget, t.ex nyss registrerat eller bekräftat av databasen
+     */
+    void add(String username) {
+        String key = key(username);
+        filter.add(key);
+        if (recent.size() >= recentCapacity) {
+            // bara en genväg, filtret har fortfarande alla namn
+            recent.clear();
+        }
+        recent.add(key);
+    }
+
+    Answer check(String username) {
+        String key = key(username);
+        if (!filter.mightContain(key)) {
+            free.increment();
+            return Answer.FREE;
+        }
+        if (recent.contains(key)) {
+            taken.increment();
+            return Answer.TAKEN;
+        }
+        maybe.increment();
+        return Answer.MAYBE;
+    }
+
+    // databasen sa att ett MAYBE var ledigt
+    void falsePositive() {
+        falsePositives.increment();
+    }
+
+    long taken() {
+        return taken.sum();
+    }
+
+    long maybe() {
+        return maybe.sum();
+    }
+
+    long falsePositives() {
+        return falsePositives.sum();
+    }
+
+    String summary() {
+        return String.format(Locale.ROOT,
+                "📇 Namnfilter: %.1f%% fyllt (%d KB), lediga %d, nekade direkt %d, frågade databasen %d (varav falsklarm %d)",
+                filter.fill() * 100, filter.bits() / 8 / 1024, free.sum(), taken(), maybe(), falsePositives());
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
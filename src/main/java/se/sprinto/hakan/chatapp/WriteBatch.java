@@ -0,0 +1,66 @@
+package se.sprinto.hakan.chatapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+/**
+ * Några rader från OutboundQueue som skrivs med en enda gathering write.
+ * Buffertarna skrivs direkt som de är, en delad broadcast-buffert
+ * kopieras alltså aldrig per mottagare.
+ * Används bara av en skrivare i taget (writer-tråden eller nio-loopen).
+ */
+final class WriteBatch {
+
+    private final ByteBuffer[] frames = new ByteBuffer[16];
+    private int offset;
+    private int count;
+
+    boolean isEmpty() {
+        return offset == count;
+    }
+
+    void add(ByteBuffer frame) {
+        compact();
+        frames[count++] = frame;
+    }
+
+    /**
+     * fyller på med det som redan ligger i kön, väntar aldrig
+     */
+    void fill(OutboundQueue queue) {
+        compact();
+        ByteBuffer frame;
+        while (count < frames.length && (frame = queue.poll()) != null) {
+            frames[count++] = frame;
+        }
+    }
+
+    /**
+     * skriver så mycket kanalen tar emot och släpper de rader som gått ut helt
+     */
+    void writeTo(GatheringByteChannel channel) throws IOException {
+        channel.write(frames, offset, count - offset);
+        while (offset < count && !frames[offset].hasRemaining()) {
+            frames[offset++] = null;
+        }
+    }
+
+    void clear() {
+        Arrays.fill(frames, null);
+        offset = 0;
+        count = 0;
+    }
+
+    private void compact() {
+        if (offset == 0) {
+            return;
+        }
+        int remaining = count - offset;
+        System.arraycopy(frames, offset, frames, 0, remaining);
+        Arrays.fill(frames, remaining, count, null);
+        offset = 0;
+        count = remaining;
+    }
+}
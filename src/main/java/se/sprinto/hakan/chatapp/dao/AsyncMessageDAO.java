@@ -0,0 +1,65 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import se.sprinto.hakan.chatapp.model.Message;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Asynkron variant av en MessageDAO, se AsyncUserDAO
+ */
+public class AsyncMessageDAO {
+
+    private final MessageDAO delegate;
+    private final Executor executor;
+
+    public AsyncMessageDAO(MessageDAO delegate, Executor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<Void> saveMessageAsync(Message message) {
+        return supply(() -> {
+            delegate.saveMessage(message);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> saveMessagesAsync(List<Message> messages) {
+        return supply(() -> {
+            delegate.saveMessages(messages);
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<Message>> getMessagesByUserIdAsync(int userId) {
+        return supply(() -> delegate.getMessagesByUserId(userId));
+    }
+
+    public CompletableFuture<List<Message>> getMessagesByUserIdAsync(int userId, Message before, int limit) {
+        return supply(() -> delegate.getMessagesByUserId(userId, before, limit));
+    }
+
+    public CompletableFuture<List<Message>> getRecentMessagesByRoomAsync(String room, int limit) {
+        return supply(() -> delegate.getRecentMessagesByRoom(room, limit));
+    }
+
+    public CompletableFuture<List<Message>> getMessagesByIdsAsync(List<Integer> ids) {
+        return supply(() -> delegate.getMessagesByIds(ids));
+    }
+
+    public MessageDAO getDelegate() {
+        return delegate;
+    }
+
+    private <T> CompletableFuture<T> supply(Supplier<T> call) {
+        try {
+            return CompletableFuture.supplyAsync(call, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
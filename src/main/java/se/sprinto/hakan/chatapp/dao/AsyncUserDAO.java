@@ -0,0 +1,63 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import se.sprinto.hakan.chatapp.model.User;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Asynkron variant av en UserDAO. Varje anrop körs på executorn och
+ * returnerar direkt med en CompletableFuture, så den som anropar (t.ex en
+ * worker-tråd i nio-läget) kan fortsätta med annat eller kedja på resultatet.
+ *
+ * Är executorn full blir futuren misslyckad med RejectedExecutionException
+ * direkt, inget väntar i en obegränsad kö.
+ */
+public class AsyncUserDAO {
+
+    private final UserDAO delegate;
+    private final Executor executor;
+
+    public AsyncUserDAO(UserDAO delegate, Executor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<User> loginAsync(String username, String password) {
+        return supply(() -> delegate.login(username, password));
+    }
+
+    public CompletableFuture<User> registerAsync(User user) {
+        return supply(() -> delegate.register(user));
+    }
+
+    public CompletableFuture<User> registerHashedAsync(User user) {
+        return supply(() -> delegate.registerHashed(user));
+    }
+
+    public CompletableFuture<User> findByUsernameAsync(String username) {
+        return supply(() -> delegate.findByUsername(username));
+    }
+
+    public CompletableFuture<Boolean> changePasswordAsync(String username, String newPassword) {
+        return supply(() -> delegate.changePassword(username, newPassword));
+    }
+
+    public CompletableFuture<Boolean> replacePasswordHashAsync(String username, String expectedHash, String newHash) {
+        return supply(() -> delegate.replacePasswordHash(username, expectedHash, newHash));
+    }
+
+    public UserDAO getDelegate() {
+        return delegate;
+    }
+
+    private <T> CompletableFuture<T> supply(Supplier<T> call) {
+        try {
+            return CompletableFuture.supplyAsync(call, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
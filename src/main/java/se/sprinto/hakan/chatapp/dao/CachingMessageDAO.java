@@ -0,0 +1,352 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import se.sprinto.hakan.chatapp.model.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Håller de senaste perUser meddelandena per användare i minnet (en MessageRing),
+ * framför en annan MessageDAO. /mymsgs och historiken vid inloggning
+ * frågar oftast bara efter de senaste, och då behövs ingen fråga mot databasen.
+ *
+ * En användares ring fylls från delegate första gången den läses, sedan
+ * läggs varje nytt meddelande till när det sparas. Ryms hela historiken i
+ * ringen kan allt svaras härifrån, annars bara sidor som ligger i ringen.
+ *
+ * Alla ringar tillsammans får ta max maxMessages platser. Går det över
+ * släpps de användare som varit inaktiva längst tills det finns plats igen.
+ *
+ * Ligger WriteBehindMessageDAO under cachen hamnar ett meddelande i ringen först
+ * när skrivtråden har sparat det och det har fått sitt id. Tills dess svarar
+ * delegate för den användaren (den väntar in kön), så ringen har aldrig
+ * meddelanden med id 0 och en läsning direkt efter ett meddelande visar det.
+ *
+ * Databasfrågor görs aldrig med en användares lås, låsen skyddar bara ringen.
+ */
+public class CachingMessageDAO implements MessageDAO {
+
+    // samma ordning som databasens keyset, (timestamp, id)
+    private static final Comparator<Message> ORDER =
+            Comparator.comparing(Message::getTimestamp).thenComparingInt(Message::getId);
+
+    /**
+     * en användares cache. medan ringen fylls från delegate (loading) sparas
+     * meddelanden som hinner bli skrivna i arrived och läggs till efteråt,
+     * utom de som redan kom med i det som lästes
+     */
+    private static final class History {
+        final MessageRing ring;
+        // ringen har fyllts från delegate
+        boolean warm;
+        // någon läser från delegate just nu, andra läsare går direkt till delegate under tiden
+        boolean loading;
+        final List<Message> arrived = new ArrayList<>();
+        // högsta id som kom med när ringen fylldes
+        int loadedUpTo;
+        // ringen har allt användaren skrivit, inget har fallit ut
+        boolean complete;
+        // släppt ur cachen, den som har en gammal referens ska inte använda den
+        boolean evicted;
+        volatile long lastAccess = System.nanoTime();
+
+        History(int capacity) {
+            ring = new MessageRing(capacity);
+        }
+
+        // platser i budgeten, en för själva posten och en per meddelande
+        int cost() {
+            return 1 + ring.size();
+        }
+    }
+
+    private final MessageDAO delegate;
+    private final int perUser;
+    private final long maxMessages;
+    private final Map<Integer, History> histories = new ConcurrentHashMap<>();
+    // meddelanden per användare som ligger i skrivkön och inte är sparade än
+    private final Map<Integer, Integer> unpersisted = new ConcurrentHashMap<>();
+    // true om delegate sparar i bakgrunden och säger till när det är gjort
+    private final boolean writeBehind;
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictedUsers = new LongAdder();
+
+    public CachingMessageDAO(MessageDAO delegate, int perUser, long maxMessages) {
+        // 0 betyder ingen cache, då ska ChatServer inte skapa den alls
+        if (perUser < 1) {
+            throw new IllegalArgumentException("❌ CachingMessageDAO behöver perUser > 0");
+        }
+        this.delegate = delegate;
+        this.perUser = perUser;
+        this.maxMessages = maxMessages;
+        this.writeBehind = delegate instanceof WriteBehindMessageDAO;
+        if (writeBehind) {
+            ((WriteBehindMessageDAO) delegate).setWriteListener(this::written);
+        }
+    }
+
+    @Override
+    public void saveMessage(Message message) {
+        if (!writeBehind) {
+            delegate.saveMessage(message);
+            cache(message);
+            return;
+        }
+        // räknas ner i written() oavsett hur det går, även om det aldrig kom in i kön
+        unpersisted.merge(message.getUserId(), 1, Integer::sum);
+        delegate.saveMessage(message);
+    }
+
+    @Override
+    public List<Message> getMessagesByUserId(int userId) {
+        List<Message> all = completeHistory(userId);
+        return all != null ? all : delegate.getMessagesByUserId(userId);
+    }
+
+    @Override
+    public void streamMessagesByUserId(int userId, Consumer<Message> sink) {
+        List<Message> all = completeHistory(userId);
+        if (all != null) {
+            all.forEach(sink);
+        } else {
+            delegate.streamMessagesByUserId(userId, sink);
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesByUserId(int userId, Message before, int limit) {
+        History history = usable(userId);
+        if (history != null) {
+            List<Message> page = null;
+            boolean complete = false;
+            synchronized (history) {
+                // släppt sedan warm(): nya meddelanden kan saknas
+                if (history.warm && !history.evicted) {
+                    page = history.ring.newest(limit, m -> before == null || ORDER.compare(m, before) < 0);
+                    complete = history.complete;
+                }
+            }
+            // en hel sida, eller allt som finns: då har databasen inget mer att säga
+            if (page != null && (page.size() == limit || complete)) {
+                hits.increment();
+                page.sort(ORDER);
+                return page;
+            }
+        }
+        misses.increment();
+        return delegate.getMessagesByUserId(userId, before, limit);
+    }
+
+    @Override
+    public List<Message> getRecentMessagesByRoom(String room, int limit) {
+        return delegate.getRecentMessagesByRoom(room, limit);
+    }
+
+    @Override
+    public void forEachMessage(Consumer<Message> sink) {
+        delegate.forEachMessage(sink);
+    }
+
+    @Override
+    public List<Message> getMessagesByIds(List<Integer> ids) {
+        return delegate.getMessagesByIds(ids);
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictedUsers() {
+        return evictedUsers.sum();
+    }
+
+    // antal användare och meddelanden i cachen just nu
+    public int users() {
+        return histories.size();
+    }
+
+    public long used() {
+        return used.get();
+    }
+
+    // hela historiken om den ryms i ringen, annars null
+    private List<Message> completeHistory(int userId) {
+        History history = usable(userId);
+        if (history != null) {
+            synchronized (history) {
+                if (history.warm && history.complete && !history.evicted) {
+                    hits.increment();
+                    List<Message> all = history.ring.toList();
+                    all.sort(ORDER);
+                    return all;
+                }
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * användarens cache, eller null om något av det användaren skrivit inte är sparat än.
+     * ringen kan fortfarande vara kall om någon annan håller på att fylla den
+     */
+    private History usable(int userId) {
+        if (unpersisted.containsKey(userId)) {
+            return null;
+        }
+        return warm(userId);
+    }
+
+    // från skrivtråden i WriteBehindMessageDAO, en gång per meddelande
+    private void written(List<Message> messages, boolean saved) {
+        for (Message message : messages) {
+            // först i ringen, sedan räknas det som sparat, så en läsare ser det i någon av dem
+            if (saved) {
+                cache(message);
+            }
+            unpersisted.computeIfPresent(message.getUserId(), (id, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    // ett sparat meddelande med id läggs i användarens ring, om användaren har en
+    private void cache(Message message) {
+        History history = histories.get(message.getUserId());
+        if (history == null) {
+            return;
+        }
+        synchronized (history) {
+            if (history.evicted) {
+                return;
+            }
+            if (history.loading) {
+                history.arrived.add(message);
+                return;
+            }
+            if (history.warm) {
+                add(history, message);
+            }
+        }
+        history.lastAccess = System.nanoTime();
+        evictIfOverBudget();
+    }
+
+    // anropas med historyns lås
+    private void add(History history, Message message) {
+        // redan med i det som lästes från delegate
+        if (message.getId() <= history.loadedUpTo && history.ring.containsId(message.getId())) {
+            return;
+        }
+        if (history.ring.add(message) == null) {
+            used.incrementAndGet();
+        } else {
+            history.complete = false;
+        }
+    }
+
+    private History history(int userId) {
+        History history = histories.computeIfAbsent(userId, id -> {
+            used.incrementAndGet();
+            return new History(perUser);
+        });
+        history.lastAccess = System.nanoTime();
+        return history;
+    }
+
+    // användarens cache, fylls från delegate första gången
+    private History warm(int userId) {
+        while (true) {
+            History history = history(userId);
+            synchronized (history) {
+                if (history.evicted) {
+                    // släpptes mellan uppslaget och låset, nästa varv skapar en ny
+                    continue;
+                }
+                if (history.warm || history.loading) {
+                    return history;
+                }
+                history.loading = true;
+            }
+            load(userId, history);
+            evictIfOverBudget();
+            return history;
+        }
+    }
+
+    // läser de senaste från delegate utan lås och lägger sedan in dem i ringen
+    private void load(int userId, History history) {
+        List<Message> latest = null;
+        try {
+            // en extra rad säger om det finns fler än ringen rymmer
+            latest = delegate.getMessagesByUserId(userId, null, perUser + 1);
+        } finally {
+            synchronized (history) {
+                history.loading = false;
+                if (latest != null && !history.evicted) {
+                    history.complete = latest.size() <= perUser;
+                    for (Message message : latest.subList(Math.max(0, latest.size() - perUser), latest.size())) {
+                        add(history, message);
+                        history.loadedUpTo = Math.max(history.loadedUpTo, message.getId());
+                    }
+                    for (Message message : history.arrived) {
+                        add(history, message);
+                    }
+                    history.warm = true;
+                }
+                // gick läsningen fel blir ringen kall och nästa läsare försöker igen
+                history.arrived.clear();
+            }
+        }
+    }
+
+    /**
+     * släpper de användare som varit inaktiva längst tills 90% av budgeten
+     * är ledig. bara en tråd städar åt gången, de andra fortsätter direkt
+     */
+    private void evictIfOverBudget() {
+        if (used.get() <= maxMessages || !evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // lastAccess ändras medan vi sorterar, så värdena kopieras först
+            List<Map.Entry<Integer, History>> entries = new ArrayList<>(histories.entrySet());
+            long[][] byAge = new long[entries.size()][];
+            for (int i = 0; i < byAge.length; i++) {
+                byAge[i] = new long[]{entries.get(i).getValue().lastAccess, i};
+            }
+            Arrays.sort(byAge, Comparator.comparingLong(a -> a[0]));
+            long target = maxMessages * 9 / 10;
+            for (long[] age : byAge) {
+                if (used.get() <= target) {
+                    break;
+                }
+                Map.Entry<Integer, History> entry = entries.get((int) age[1]);
+                History history = entry.getValue();
+                synchronized (history) {
+                    if (!history.evicted && histories.remove(entry.getKey(), history)) {
+                        history.evicted = true;
+                        used.addAndGet(-history.cost());
+                        evictedUsers.increment();
+                    }
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import se.sprinto.hakan.chatapp.model.User;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Cache framför en annan UserDAO. Sparar id och lösenordets hash per
+ * användarnamn, så när många loggar in igen samtidigt (t.ex efter att
+ * nätverket hackat) hämtas de från minnet istället för från databasen.
+ * Lösenordet kontrolleras fortfarande med BCrypt varje gång, det är bara
+ * uppslaget som cachas.
+ *
+ * Max maxEntries användare, den som använts minst nyligen försvinner först (LRU).
+ * En post är giltig i ttl, och tas bort direkt när användaren registreras
+ * eller byter lösenord, så en annan server som ändrar i databasen syns senast efter ttl.
+ */
+public class CachingUserDAO implements UserDAO {
+
+    private record Entry(User user, long loadedAt) {
+    }
+
+    private final UserDAO delegate;
+    private final long ttlNanos;
+    // LinkedHashMap i åtkomstordning = LRU. låset hålls bara runt själva map-operationen
+    private final Map<String, Entry> cache;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CachingUserDAO(UserDAO delegate, int maxEntries, long ttl, TimeUnit unit) {
+        this.delegate = delegate;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.cache = new LinkedHashMap<>(Math.min(maxEntries, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public User findByUsername(String username) {
+        String key = key(username);
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(key);
+        }
+        if (entry != null && System.nanoTime() - entry.loadedAt() < ttlNanos) {
+            hits.increment();
+            return copy(entry.user());
+        }
+        misses.increment();
+        User user = delegate.findByUsername(username);
+        // okända namn cachas inte, annars skulle en ny registrering på en annan server dröja
+        if (user != null) {
+            synchronized (cache) {
+                cache.put(key, new Entry(copy(user), System.nanoTime()));
+            }
+        }
+        return user;
+    }
+
+    @Override
+    public User registerHashed(User user) {
+        invalidate(user.getUsername());
+        return delegate.registerHashed(user);
+    }
+
+    @Override
+    public boolean changePassword(String username, String newPassword) {
+        try {
+            return delegate.changePassword(username, newPassword);
+        } finally {
+            invalidate(username);
+        }
+    }
+
+    @Override
+    public boolean replacePasswordHash(String username, String expectedHash, String newHash) {
+        try {
+            return delegate.replacePasswordHash(username, expectedHash, newHash);
+        } finally {
+            invalidate(username);
+        }
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> sink) {
+        delegate.forEachUsername(sink);
+    }
+
+    public void invalidate(String username) {
+        synchronized (cache) {
+            cache.remove(key(username));
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    // användarnamn är unika utan skiftläge, som i databasen
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    // anroparen får en egen User, den i cachen ändras aldrig
+    private static User copy(User user) {
+        return new User(user.getId(), user.getUsername(), user.getPassword());
+    }
+}
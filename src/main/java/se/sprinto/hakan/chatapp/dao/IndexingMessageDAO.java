@@ -0,0 +1,123 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import se.sprinto.hakan.chatapp.model.Message;
+import se.sprinto.hakan.chatapp.search.SearchIndex;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Lägger in varje sparat meddelande i ett SearchIndex efter att delegate
+ * har sparat det (och gett det ett id). Ligger under WriteBehindMessageDAO,
+ * så indexet uppdateras av skrivtråden en batch i taget.
+ *
+ * Meddelanden som försvinner ur delegate tas bort ur indexet: direkt när
+ * MessageListDAO knuffar ut dem, och annars när en sökning hittar ett id
+ * som inte går att hämta längre.
+ */
+public class IndexingMessageDAO implements MessageDAO {
+
+    // så många gånger söks det om när träffar visade sig vara borta
+    private static final int MAX_SEARCH_ROUNDS = 3;
+
+    private final MessageDAO delegate;
+    private final SearchIndex index;
+
+    public IndexingMessageDAO(MessageDAO delegate, SearchIndex index) {
+        this.delegate = delegate;
+        this.index = index;
+        if (delegate instanceof MessageListDAO list) {
+            list.setEvictionListener(message -> index.remove(message.getId()));
+        }
+    }
+
+    /**
+     * läser in alla meddelanden som redan finns, anropas en gång vid start
+     * @return antal meddelanden i indexet
+     */
+    public long buildIndex() {
+        delegate.forEachMessage(index::add);
+        return index.documents();
+    }
+
+    /**
+     * meddelanden som innehåller alla ord, nyaste först
+     */
+    public List<Message> search(String query, int limit) {
+        List<Message> hits = new ArrayList<>();
+        for (int round = 0; round < MAX_SEARCH_ROUNDS; round++) {
+            List<Integer> ids = index.search(query, limit);
+            hits = new ArrayList<>(delegate.getMessagesByIds(ids));
+            if (hits.size() == ids.size()) {
+                break;
+            }
+            // några finns inte längre: ur indexet, och sök igen så att sidan fylls med de som finns
+            Set<Integer> found = new HashSet<>();
+            for (Message hit : hits) {
+                found.add(hit.getId());
+            }
+            for (int id : ids) {
+                if (!found.contains(id)) {
+                    index.remove(id);
+                }
+            }
+        }
+        hits.sort(Comparator.comparingInt(Message::getId).reversed());
+        return hits;
+    }
+
+    public SearchIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public void saveMessage(Message message) {
+        delegate.saveMessage(message);
+        index.add(message);
+        index.compactIfNeeded();
+    }
+
+    @Override
+    public void saveMessages(List<Message> messages) {
+        delegate.saveMessages(messages);
+        for (Message message : messages) {
+            index.add(message);
+        }
+        // skrivtråden har tid, sökningarna ska inte behöva städa
+        index.compactIfNeeded();
+    }
+
+    @Override
+    public List<Message> getMessagesByUserId(int userId) {
+        return delegate.getMessagesByUserId(userId);
+    }
+
+    @Override
+    public void streamMessagesByUserId(int userId, Consumer<Message> sink) {
+        delegate.streamMessagesByUserId(userId, sink);
+    }
+
+    @Override
+    public List<Message> getMessagesByUserId(int userId, Message before, int limit) {
+        return delegate.getMessagesByUserId(userId, before, limit);
+    }
+
+    @Override
+    public List<Message> getRecentMessagesByRoom(String room, int limit) {
+        return delegate.getRecentMessagesByRoom(room, limit);
+    }
+
+    @Override
+    public void forEachMessage(Consumer<Message> sink) {
+        delegate.forEachMessage(sink);
+    }
+
+    @Override
+    public List<Message> getMessagesByIds(List<Integer> ids) {
+        return delegate.getMessagesByIds(ids);
+    }
+}
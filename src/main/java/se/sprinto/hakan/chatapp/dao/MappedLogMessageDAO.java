@@ -0,0 +1,475 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import se.sprinto.hakan.chatapp.model.Message;
+import se.sprinto.hakan.chatapp.util.ThreadUtil;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Sparar meddelanden i en egen logg på disk istället för i en databas.
+ * Meddelandena läggs efter varandra i segmentfiler (00000001.seg, 00000002.seg ...)
+ * som är minnesmappade, så en skrivning är bara en kopiering in i minnet
+ * och operativsystemet skriver ut sidorna till disk.
+ *
+ * Varje post:  längd (int) | CRC32 (int) | id | userId | sekund (long) | nano | rummets längd (short) | rum | text
+ * Längden skrivs sist, en post med längd 0 betyder att segmentet tar slut där.
+ *
+ * I minnet finns ett index per användare och per rum med postens plats i loggen,
+ * så /mymsgs läser bara användarens egna poster. Indexet byggs om från filerna
+ * vid start, och en post som bara hann skrivas till hälften innan en krasch
+ * (fel CRC eller längd) klipps bort tillsammans med allt efter den.
+ */
+public class MappedLogMessageDAO implements MessageDAO {
+
+    public enum Fsync {
+        // force() efter varje anrop till saveMessage/saveMessages, med WriteBehindMessageDAO blir det en per batch
+        ALWAYS,
+        // force() var fsyncMillis, en krasch kan kosta de senaste millisekunderna
+        INTERVAL,
+        // operativsystemet bestämmer, överlever att processen dör men inte att datorn gör det
+        NEVER
+    }
+
+    static final String SEGMENT_SUFFIX = ".seg";
+    // längd + CRC32
+    private static final int RECORD_HEADER = 8;
+    // id, userId, sekund, nano, rummets längd
+    private static final int BODY_FIXED = 4 + 4 + 8 + 4 + 2;
+
+    // samma ordning som databasens keyset, (timestamp, id)
+    private static final Comparator<Message> ORDER =
+            Comparator.comparing(Message::getTimestamp).thenComparingInt(Message::getId);
+
+    private static final class Segment {
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        // nästa lediga byte, ändras bara under appendLock
+        int writePos;
+
+        Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * platserna (segment << 32 | offset) för en användares eller ett rums poster, i skrivordning.
+     * arrayen växer bara och gamla platser ändras aldrig, så en läsare kan
+     * använda arrayen och storleken den fick utan att hålla låset
+     */
+    private static final class Positions {
+        private long[] positions = new long[8];
+        private int size;
+
+        synchronized void add(long position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        synchronized Positions snapshot() {
+            Positions copy = new Positions();
+            copy.positions = positions;
+            copy.size = size;
+            return copy;
+        }
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final Fsync fsync;
+
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Map<Integer, Positions> byUser = new ConcurrentHashMap<>();
+    private final Map<String, Positions> byRoom = new ConcurrentHashMap<>();
+    // alla poster, id:n ökar i skrivordning så ett id hittas med binärsökning
+    private final Positions all = new Positions();
+
+    // en skrivare åt gången, läsningar tar inget lås
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // force() körs av en i taget, så den som ser dirty == false vet att någon annan redan är klar
+    private final Object syncLock = new Object();
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService syncer;
+    private int nextId = 1;
+    // numret i filnamnet på det sista segmentet
+    private int lastSegmentNumber;
+    // första segmentet med skrivningar som inte gått till disk än
+    private int firstDirty;
+    private boolean dirty;
+    private boolean closed;
+
+    public MappedLogMessageDAO(Path dir, int segmentBytes, Fsync fsync, long fsyncMillis) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+        try {
+            Files.createDirectories(dir);
+            recover();
+        } catch (IOException e) {
+            throw new RuntimeException("❌ Kunde inte öppna meddelandeloggen i " + dir + ": " + e.getMessage(), e);
+        }
+        if (fsync == Fsync.INTERVAL) {
+            syncer = Executors.newSingleThreadScheduledExecutor(ThreadUtil.namedFactory("chat-log-fsync"));
+            syncer.scheduleWithFixedDelay(this::sync, fsyncMillis, fsyncMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    @Override
+    public void saveMessage(Message message) {
+        saveMessages(List.of(message));
+    }
+
+    @Override
+    public void saveMessages(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        appendLock.lock();
+        try {
+            if (closed) {
+                throw new RuntimeException("❌ Meddelandeloggen är stängd, meddelandet sparades inte");
+            }
+            for (Message message : messages) {
+                append(message);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        if (fsync == Fsync.ALWAYS) {
+            sync();
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesByUserId(int userId) {
+        List<Message> result = new ArrayList<>();
+        streamMessagesByUserId(userId, result::add);
+        return result;
+    }
+
+    @Override
+    public void streamMessagesByUserId(int userId, Consumer<Message> sink) {
+        Positions positions = snapshot(byUser.get(userId));
+        for (int i = 0; i < positions.size; i++) {
+            sink.accept(read(positions.positions[i]));
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesByUserId(int userId, Message before, int limit) {
+        // bakifrån tills sidan är full, posterna ligger redan i (nästan) tidsordning
+        Positions positions = snapshot(byUser.get(userId));
+        List<Message> page = new ArrayList<>(Math.min(limit, positions.size));
+        for (int i = positions.size - 1; i >= 0 && page.size() < limit; i--) {
+            Message message = read(positions.positions[i]);
+            if (before == null || ORDER.compare(message, before) < 0) {
+                page.add(message);
+            }
+        }
+        page.sort(ORDER);
+        return page;
+    }
+
+    @Override
+    public List<Message> getRecentMessagesByRoom(String room, int limit) {
+        Positions positions = snapshot(byRoom.get(roomKey(room)));
+        List<Message> recent = new ArrayList<>(Math.min(limit, positions.size));
+        for (int i = positions.size - 1; i >= 0 && recent.size() < limit; i--) {
+            recent.add(read(positions.positions[i]));
+        }
+        Collections.reverse(recent);
+        return recent;
+    }
+
+    @Override
+    public void forEachMessage(Consumer<Message> sink) {
+        Positions positions = all.snapshot();
+        for (int i = 0; i < positions.size; i++) {
+            sink.accept(read(positions.positions[i]));
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesByIds(List<Integer> ids) {
+        Positions positions = all.snapshot();
+        List<Message> found = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            int low = 0;
+            int high = positions.size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int midId = idAt(positions.positions[mid]);
+                if (midId < id) {
+                    low = mid + 1;
+                } else if (midId > id) {
+                    high = mid - 1;
+                } else {
+                    found.add(read(positions.positions[mid]));
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * skriver ut allt som inte gått till disk än
+     */
+    public void sync() {
+        synchronized (syncLock) {
+            int from;
+            appendLock.lock();
+            try {
+                if (!dirty) {
+                    return;
+                }
+                from = firstDirty;
+                firstDirty = segments.size() - 1;
+                dirty = false;
+            } finally {
+                appendLock.unlock();
+            }
+            for (int i = from; i < segments.size(); i++) {
+                segments.get(i).buffer.force();
+            }
+        }
+    }
+
+    /**
+     * skriver ut det som är kvar och stänger filerna, anropas när servern stängs
+     */
+    public void close() {
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        appendLock.lock();
+        try {
+            closed = true;
+        } finally {
+            appendLock.unlock();
+        }
+        sync();
+        for (Segment segment : segments) {
+            try {
+                segment.channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // antal segmentfiler, för test och statistik
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    private void append(Message message) {
+        byte[] room = message.getRoom().getBytes(StandardCharsets.UTF_8);
+        byte[] text = message.getText().getBytes(StandardCharsets.UTF_8);
+        int bodyLength = BODY_FIXED + room.length + text.length;
+        int recordLength = RECORD_HEADER + bodyLength;
+        if (recordLength > segmentBytes || room.length > 0xFFFF) {
+            throw new RuntimeException("❌ Meddelandet är för stort för meddelandeloggen");
+        }
+        Segment segment = segments.get(segments.size() - 1);
+        if (segment.writePos + recordLength > segment.buffer.capacity()) {
+            segment = openSegment(lastSegmentNumber + 1);
+        }
+        MappedByteBuffer buffer = segment.buffer;
+        int pos = segment.writePos;
+        int id = nextId;
+        LocalDateTime timestamp = message.getTimestamp();
+
+        int body = pos + RECORD_HEADER;
+        buffer.putInt(body, id);
+        buffer.putInt(body + 4, message.getUserId());
+        buffer.putLong(body + 8, timestamp.toEpochSecond(ZoneOffset.UTC));
+        buffer.putInt(body + 16, timestamp.getNano());
+        buffer.putShort(body + 20, (short) room.length);
+        buffer.put(body + BODY_FIXED, room);
+        buffer.put(body + BODY_FIXED + room.length, text);
+        crc.reset();
+        crc.update(buffer.slice(body, bodyLength));
+        buffer.putInt(pos + 4, (int) crc.getValue());
+        // längden sist, innan den finns är posten inte med
+        buffer.putInt(pos, bodyLength);
+
+        segment.writePos = pos + recordLength;
+        nextId++;
+        message.setId(id);
+        index(position(segments.size() - 1, pos), message.getUserId(), message.getRoom());
+        dirty = true;
+    }
+
+    private Message read(long position) {
+        MappedByteBuffer buffer = segments.get((int) (position >>> 32)).buffer;
+        int pos = (int) position;
+        int bodyLength = buffer.getInt(pos);
+        int body = pos + RECORD_HEADER;
+        int roomLength = buffer.getShort(body + 20) & 0xFFFF;
+        byte[] room = new byte[roomLength];
+        byte[] text = new byte[bodyLength - BODY_FIXED - roomLength];
+        buffer.get(body + BODY_FIXED, room);
+        buffer.get(body + BODY_FIXED + roomLength, text);
+        LocalDateTime timestamp = LocalDateTime.ofEpochSecond(
+                buffer.getLong(body + 8), buffer.getInt(body + 16), ZoneOffset.UTC);
+        Message message = new Message(buffer.getInt(body + 4), new String(room, StandardCharsets.UTF_8),
+                new String(text, StandardCharsets.UTF_8), timestamp);
+        message.setId(buffer.getInt(body));
+        return message;
+    }
+
+    private int idAt(long position) {
+        return segments.get((int) (position >>> 32)).buffer.getInt((int) position + RECORD_HEADER);
+    }
+
+    private void index(long position, int userId, String room) {
+        all.add(position);
+        byUser.computeIfAbsent(userId, id -> new Positions()).add(position);
+        byRoom.computeIfAbsent(roomKey(room), key -> new Positions()).add(position);
+    }
+
+    private static Positions snapshot(Positions positions) {
+        return positions == null ? new Positions() : positions.snapshot();
+    }
+
+    private static long position(int segment, int offset) {
+        return (long) segment << 32 | offset;
+    }
+
+    // rum jämförs utan skiftläge, som i MessageListDAO
+    private static String roomKey(String room) {
+        return room.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * öppnar alla segment i ordning och bygger indexet. första posten som inte
+     * går att läsa hel är slutet på segmentet, resten nollas så att nästa
+     * skrivning inte kan hamna framför gammalt skräp
+     */
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+        for (Path file : files) {
+            Segment segment = mapSegment(file);
+            segments.add(segment);
+            scan(segments.size() - 1, segment);
+            lastSegmentNumber = segmentNumber(file);
+        }
+        if (segments.isEmpty()) {
+            openSegment(1);
+        }
+        firstDirty = segments.size() - 1;
+    }
+
+    private void scan(int number, Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int pos = 0;
+        while (pos + RECORD_HEADER <= buffer.capacity()) {
+            int bodyLength = buffer.getInt(pos);
+            if (bodyLength == 0) {
+                break;
+            }
+            if (!valid(buffer, pos, bodyLength)) {
+                System.out.println("⚠️ Trasig post i " + segment.path.getFileName() + " vid byte " + pos
+                        + ", loggen klipps där (troligen en krasch mitt i en skrivning)");
+                truncate(buffer, pos);
+                break;
+            }
+            int body = pos + RECORD_HEADER;
+            int id = buffer.getInt(body);
+            int roomLength = buffer.getShort(body + 20) & 0xFFFF;
+            byte[] room = new byte[roomLength];
+            buffer.get(body + BODY_FIXED, room);
+            index(position(number, pos), buffer.getInt(body + 4), new String(room, StandardCharsets.UTF_8));
+            nextId = Math.max(nextId, id + 1);
+            pos = body + bodyLength;
+        }
+        segment.writePos = pos;
+    }
+
+    private boolean valid(MappedByteBuffer buffer, int pos, int bodyLength) {
+        if (bodyLength < BODY_FIXED || bodyLength > buffer.capacity() - pos - RECORD_HEADER) {
+            return false;
+        }
+        int body = pos + RECORD_HEADER;
+        int roomLength = buffer.getShort(body + 20) & 0xFFFF;
+        if (BODY_FIXED + roomLength > bodyLength) {
+            return false;
+        }
+        crc.reset();
+        crc.update(buffer.slice(body, bodyLength));
+        return (int) crc.getValue() == buffer.getInt(pos + 4);
+    }
+
+    private static void truncate(MappedByteBuffer buffer, int from) {
+        int pos = from;
+        for (; pos + Long.BYTES <= buffer.capacity(); pos += Long.BYTES) {
+            buffer.putLong(pos, 0L);
+        }
+        for (; pos < buffer.capacity(); pos++) {
+            buffer.put(pos, (byte) 0);
+        }
+        buffer.force();
+    }
+
+    // nytt tomt segment sist, anropas vid start eller under appendLock när det sista är fullt
+    private Segment openSegment(int number) {
+        try {
+            Segment segment = mapSegment(dir.resolve(String.format("%08d%s", number, SEGMENT_SUFFIX)));
+            segments.add(segment);
+            lastSegmentNumber = number;
+            return segment;
+        } catch (IOException e) {
+            throw new RuntimeException("❌ Kunde inte skapa ett nytt segment i meddelandeloggen: " + e.getMessage(), e);
+        }
+    }
+
+    private static int segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("❌ Okänd fil i meddelandeloggen: " + name);
+        }
+    }
+
+    private Segment mapSegment(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // ett befintligt segment behåller sin storlek även om segmentBytes har ändrats
+        long size = channel.size() > 0 ? channel.size() : segmentBytes;
+        return new Segment(file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+}
@@ -3,9 +3,59 @@ package se.sprinto.hakan.chatapp.dao;
 import se.sprinto.hakan.chatapp.model.Message;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface MessageDAO {
     void saveMessage(Message message);
 
+    /**
+     * sparar flera meddelanden på en gång, implementationer som kan
+     * skriva i en batch bör göra det
+     */
+    default void saveMessages(List<Message> messages) {
+        for (Message message : messages) {
+            saveMessage(message);
+        }
+    }
+
     List<Message> getMessagesByUserId(int userId);
+
+    /**
+     * skickar alla användarens meddelanden till sink, äldst först, ett i taget
+     * medan de läses. ingen lista byggs upp, så minnet är detsamma oavsett
+     * hur lång historiken är. sink får blockera (t.ex en full utgående kö)
+     */
+    default void streamMessagesByUserId(int userId, Consumer<Message> sink) {
+        getMessagesByUserId(userId).forEach(sink);
+    }
+
+    /**
+     * en sida av användarens historik, bläddras bakåt i tiden med keyset
+     * på (timestamp, id) istället för OFFSET, så varje sida kostar lika lite
+     * oavsett hur långt bak man är
+     * @param userId användarens id
+     * @param before meddelandet sidan ska sluta före (första i förra sidan), null = de senaste
+     * @param limit max antal meddelanden
+     * @return meddelandena äldst först
+     */
+    List<Message> getMessagesByUserId(int userId, Message before, int limit);
+
+    /**
+     * de senaste meddelandena i ett rum, äldst först
+     * @param room rummets namn
+     * @param limit max antal meddelanden
+     */
+    List<Message> getRecentMessagesByRoom(String room, int limit);
+
+    /**
+     * alla sparade meddelanden, i id-ordning, ett i taget.
+     * används när sökindexet byggs vid start
+     */
+    void forEachMessage(Consumer<Message> sink);
+
+    /**
+     * meddelandena med de här id:na, de som inte finns (längre) hoppas över
+     * @return i valfri ordning
+     */
+    List<Message> getMessagesByIds(List<Integer> ids);
 }
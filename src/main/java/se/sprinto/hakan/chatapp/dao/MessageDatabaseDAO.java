@@ -6,7 +6,9 @@ import se.sprinto.hakan.chatapp.util.DatabaseUtil;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Database implementation av MessageDAO!!
@@ -14,20 +16,89 @@ import java.util.List;
  */
 
 public class MessageDatabaseDAO implements MessageDAO{
+
+    // rader per hämtning när hela tabellen strömmas, så hela resultatet aldrig ligger i minnet
+    private static final int STREAM_FETCH_SIZE = 256;
+    // rader per sida när en användares historik strömmas till en klient
+    private static final int STREAM_PAGE_SIZE = 256;
+
+    // frågorna ligger här så att SchemaIndexTest kan kolla att de använder sina index
+
+    static final String SELECT_BY_USER_SQL = """
+            SELECT id, user_id, room, message, timestamp
+            FROM messages
+            WHERE user_id = ?
+            ORDER BY timestamp, id
+            """;
+
+    static final String SELECT_PAGE_SQL = """
+            SELECT id, user_id, room, message, timestamp
+            FROM messages
+            WHERE user_id = ?
+            ORDER BY timestamp DESC, id DESC
+            LIMIT ?
+            """;
+
+    // (timestamp, id) < (?, ?) skrivet ut, så att MySQL säkert använder indexet
+    static final String SELECT_PAGE_BEFORE_SQL = """
+            SELECT id, user_id, room, message, timestamp
+            FROM messages
+            WHERE user_id = ?
+              AND (timestamp < ? OR (timestamp = ? AND id < ?))
+            ORDER BY timestamp DESC, id DESC
+            LIMIT ?
+            """;
+
+    // samma keyset som SELECT_PAGE_BEFORE_SQL fast framåt, för strömmad historik
+    static final String SELECT_PAGE_AFTER_SQL = """
+            SELECT id, user_id, room, message, timestamp
+            FROM messages
+            WHERE user_id = ?
+              AND (timestamp > ? OR (timestamp = ? AND id > ?))
+            ORDER BY timestamp, id
+            LIMIT ?
+            """;
+
+    static final String SELECT_FIRST_PAGE_SQL = """
+            SELECT id, user_id, room, message, timestamp
+            FROM messages
+            WHERE user_id = ?
+            ORDER BY timestamp, id
+            LIMIT ?
+            """;
+
+    static final String SELECT_RECENT_BY_ROOM_SQL = """
+            SELECT id, user_id, room, message, timestamp
+            FROM messages
+            WHERE room = ?
+            ORDER BY timestamp DESC, id DESC
+            LIMIT ?
+            """;
+
+    static final String SELECT_ALL_SQL = """
+            SELECT id, user_id, room, message, timestamp
+            FROM messages
+            ORDER BY id
+            """;
+
+    // max antal id:n i en IN (...), större listor delas upp
+    private static final int MAX_IN_IDS = 500;
+
     /**
      * Sparar ett meddelande till databasen.
      * @param message Message objelt att spara
      */
     @Override
     public void saveMessage(Message message) {
-        String sql = "INSERT INTO messages (user_id, message, timestamp) VALUES (?, ?, ?)";
+        String sql = "INSERT INTO messages (user_id, room, message, timestamp) VALUES (?, ?, ?, ?)";
 
         try (Connection conn = DatabaseUtil.getInstance().getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1,message.getUserId());
-            stmt.setString(2,message.getText());
+            stmt.setString(2,message.getRoom());
+            stmt.setString(3,message.getText());
             //konvertera LocalDateTime till java.sql,Timestamp
-            stmt.setTimestamp(3, Timestamp.valueOf(message.getTimestamp()));
+            stmt.setTimestamp(4, Timestamp.valueOf(message.getTimestamp()));
              stmt.executeUpdate();
 
         } catch (SQLException e) {
@@ -37,6 +108,48 @@ public class MessageDatabaseDAO implements MessageDAO{
 
     }
 
+    /**
+     * Sparar många meddelanden med en anslutning, en batch och en commit.
+     * Meddelandena får sina id:n från databasen.
+     * @param messages meddelanden att spara, i ordning
+     */
+    @Override
+    public void saveMessages(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO messages (user_id, room, message, timestamp) VALUES (?, ?, ?, ?)";
+
+        try (Connection conn = DatabaseUtil.getInstance().getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                for (Message message : messages) {
+                    stmt.setInt(1, message.getUserId());
+                    stmt.setString(2, message.getRoom());
+                    stmt.setString(3, message.getText());
+                    stmt.setTimestamp(4, Timestamp.valueOf(message.getTimestamp()));
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                conn.commit();
+
+                try (ResultSet keys = stmt.getGeneratedKeys()) {
+                    for (int i = 0; i < messages.size() && keys.next(); i++) {
+                        messages.get(i).setId(keys.getInt(1));
+                    }
+                }
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("❌ Fel vid sparande av " + messages.size() + " meddelanden: " + e.getMessage());
+        }
+    }
+
     /**
      * hämta alla meddelanden för en specifik användare
      * @param userId användarens id
@@ -44,29 +157,15 @@ public class MessageDatabaseDAO implements MessageDAO{
      */
     @Override
     public List<Message> getMessagesByUserId(int userId) {
-        String sql = """
-                SELECT id, user_id, message, timestamp 
-                FROM messages
-                WHERE user_id = ?
-                ORDER BY timestamp
-                """;
         List<Message>  messages = new ArrayList<>();
             try(Connection conn = DatabaseUtil.getInstance().getConnection();
-                PreparedStatement stmt = conn.prepareStatement(sql)) {
+                PreparedStatement stmt = conn.prepareStatement(SELECT_BY_USER_SQL)) {
 
                 stmt.setInt(1, userId);
 
                 try(ResultSet rs = stmt.executeQuery()) {
                     while(rs.next()) {
-                        //skapar message med konstruktor (id,userid,text och timstamp)
-                        Message message = new Message(
-                                rs.getInt("user_id"),
-                                rs.getString("message"),
-                                // konventerar till LocalDate
-                                rs.getTimestamp("timestamp").toLocalDateTime()
-                        );
-                        message.setId(rs.getInt("id"));
-                        messages.add(message);
+                        messages.add(toMessage(rs));
 
                     }
 
@@ -78,4 +177,186 @@ public class MessageDatabaseDAO implements MessageDAO{
             }
         return messages;
     }
+
+    /**
+     * strömmar användarens meddelanden till sink en sida i taget (keyset på
+     * timestamp, id). varje sida läses klart och anslutningen lämnas tillbaka
+     * till poolen innan sink får raderna, så en klient som läser långsamt
+     * håller aldrig en anslutning eller en öppen cursor
+     * @param userId användarens id
+     * @param sink får ett meddelande i taget, äldst först
+     */
+    @Override
+    public void streamMessagesByUserId(int userId, Consumer<Message> sink) {
+        Message last = null;
+        while (true) {
+            List<Message> page = getMessagesAfter(userId, last, STREAM_PAGE_SIZE);
+            page.forEach(sink);
+            if (page.size() < STREAM_PAGE_SIZE) {
+                return;
+            }
+            last = page.get(page.size() - 1);
+        }
+    }
+
+    // sidan efter meddelandet after, äldst först. null = från början
+    private List<Message> getMessagesAfter(int userId, Message after, int limit) {
+        String sql = after == null ? SELECT_FIRST_PAGE_SQL : SELECT_PAGE_AFTER_SQL;
+        List<Message> messages = new ArrayList<>(limit);
+        try (Connection conn = DatabaseUtil.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            int i = 1;
+            stmt.setInt(i++, userId);
+            if (after != null) {
+                Timestamp ts = Timestamp.valueOf(after.getTimestamp());
+                stmt.setTimestamp(i++, ts);
+                stmt.setTimestamp(i++, ts);
+                stmt.setInt(i++, after.getId());
+            }
+            stmt.setInt(i, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(toMessage(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("❌Fel vid hämtning av meddelanden: " + e.getMessage());
+        }
+        return messages;
+    }
+
+    /**
+     * en sida av användarens meddelanden, se MessageDAO
+     * @param userId användarens id
+     * @param before första meddelandet i förra sidan, null för de senaste
+     * @param limit max antal meddelanden
+     * @return meddelandena äldst först
+     */
+    @Override
+    public List<Message> getMessagesByUserId(int userId, Message before, int limit) {
+        String sql = before == null ? SELECT_PAGE_SQL : SELECT_PAGE_BEFORE_SQL;
+        List<Message> messages = new ArrayList<>();
+        try (Connection conn = DatabaseUtil.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            int i = 1;
+            stmt.setInt(i++, userId);
+            if (before != null) {
+                Timestamp ts = Timestamp.valueOf(before.getTimestamp());
+                stmt.setTimestamp(i++, ts);
+                stmt.setTimestamp(i++, ts);
+                stmt.setInt(i++, before.getId());
+            }
+            stmt.setInt(i, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(toMessage(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("❌Fel vid hämtning av meddelanden: " + e.getMessage());
+        }
+        // hämtade nyast först för att LIMIT ska ge rätt sida, visa äldst först
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * de senaste meddelandena i ett rum, visas när någon går in i rummet
+     * @param room rummets namn
+     * @param limit max antal meddelanden
+     * @return meddelandena äldst först
+     */
+    @Override
+    public List<Message> getRecentMessagesByRoom(String room, int limit) {
+        List<Message> messages = new ArrayList<>();
+        try (Connection conn = DatabaseUtil.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_RECENT_BY_ROOM_SQL)) {
+
+            stmt.setString(1, room);
+            stmt.setInt(2, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(toMessage(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("❌Fel vid hämtning av meddelanden i rummet: " + e.getMessage());
+        }
+        // hämtade nyast först för att LIMIT ska ge de senaste, visa äldst först
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * strömmar hela messages-tabellen i id-ordning, som streamMessagesByUserId
+     * @param sink får ett meddelande i taget
+     */
+    @Override
+    public void forEachMessage(Consumer<Message> sink) {
+        try (Connection conn = DatabaseUtil.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_ALL_SQL,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    sink.accept(toMessage(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("❌Fel vid hämtning av meddelanden: " + e.getMessage());
+        }
+    }
+
+    /**
+     * hämtar meddelanden på primärnyckeln, t.ex träffarna från /search
+     * @param ids meddelandenas id
+     * @return de som finns, i valfri ordning
+     */
+    @Override
+    public List<Message> getMessagesByIds(List<Integer> ids) {
+        List<Message> messages = new ArrayList<>(ids.size());
+        if (ids.isEmpty()) {
+            return messages;
+        }
+        try (Connection conn = DatabaseUtil.getInstance().getConnection()) {
+            for (int from = 0; from < ids.size(); from += MAX_IN_IDS) {
+                List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_IN_IDS));
+                String sql = "SELECT id, user_id, room, message, timestamp FROM messages WHERE id IN ("
+                        + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        stmt.setInt(i + 1, chunk.get(i));
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            messages.add(toMessage(rs));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("❌Fel vid hämtning av meddelanden: " + e.getMessage());
+        }
+        return messages;
+    }
+
+    // skapar message med konstruktor (userid, rum, text och timestamp) från en rad
+    private static Message toMessage(ResultSet rs) throws SQLException {
+        Message message = new Message(
+                rs.getInt("user_id"),
+                rs.getString("room"),
+                rs.getString("message"),
+                // konventerar till LocalDate
+                rs.getTimestamp("timestamp").toLocalDateTime()
+        );
+        message.setId(rs.getInt("id"));
+        return message;
+    }
 }
@@ -5,29 +5,157 @@ import se.sprinto.hakan.chatapp.model.Message;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
+/**
+ * Meddelanden i minnet, trådsäkert och med index per användare och per rum.
+ * Varje användare och rum har en egen MessageRing med sitt eget lås,
+ * så två klienter som skriver samtidigt väntar bara på varandra om de
+ * skriver till samma användare/rum. Blir en ring full försvinner de äldsta
+ * meddelandena, så minnet är begränsat hur länge servern än kör.
+ */
 public class MessageListDAO implements MessageDAO {
 
-    private final List<Message> messages = new ArrayList<>();
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    // samma ordning som databasens keyset, (timestamp, id)
+    private static final Comparator<Message> ORDER =
+            Comparator.comparing(Message::getTimestamp).thenComparingInt(Message::getId);
+
+    private final int perUserCapacity;
+    private final int perRoomCapacity;
+    private final Map<Integer, MessageRing> byUser = new ConcurrentHashMap<>();
+    private final Map<String, MessageRing> byRoom = new ConcurrentHashMap<>();
+    // alla som finns kvar i någon användares ring
+    private final Map<Integer, Message> byId = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    // meddelanden som knuffats ut ur användarnas ringar
+    private final LongAdder evicted = new LongAdder();
+    // får veta när ett meddelande inte finns längre, t.ex sökindexet. anropas med ringens lås
+    private volatile Consumer<Message> evictionListener;
+
+    public MessageListDAO() {
+        this(DEFAULT_CAPACITY, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param perUserCapacity max antal meddelanden som sparas per användare
+     * @param perRoomCapacity max antal meddelanden som sparas per rum, båda minst 1
+     */
+    public MessageListDAO(int perUserCapacity, int perRoomCapacity) {
+        // fel i server.properties ska synas vid start, inte vid första meddelandet
+        if (perUserCapacity < 1 || perRoomCapacity < 1) {
+            throw new IllegalArgumentException("❌ server.memory.perUserCapacity och perRoomCapacity måste vara minst 1");
+        }
+        this.perUserCapacity = perUserCapacity;
+        this.perRoomCapacity = perRoomCapacity;
+    }
 
     @Override
     public void saveMessage(Message message) {
-        messages.add(message);
+        MessageRing user = byUser.computeIfAbsent(message.getUserId(), id -> new MessageRing(perUserCapacity));
+        // som AUTO_INCREMENT, id behövs för att bläddra. delas ut under ringens lås
+        // så att användarens meddelanden ligger i id-ordning
+        synchronized (user) {
+            message.setId(nextId.getAndIncrement());
+            byId.put(message.getId(), message);
+            Message dropped = user.add(message);
+            if (dropped != null) {
+                byId.remove(dropped.getId());
+                evicted.increment();
+                Consumer<Message> listener = evictionListener;
+                if (listener != null) {
+                    listener.accept(dropped);
+                }
+            }
+        }
+        byRoom.computeIfAbsent(roomKey(message.getRoom()), key -> new MessageRing(perRoomCapacity)).add(message);
+    }
+
+    @Override
+    public void saveMessages(List<Message> batch) {
+        for (Message message : batch) {
+            saveMessage(message);
+        }
     }
 
     @Override
     public List<Message> getMessagesByUserId(int userId) {
-        return messages.stream()
-                .filter(m -> m.getUserId() == userId)
-                .collect(Collectors.toList());
+        MessageRing user = byUser.get(userId);
+        return user == null ? List.of() : user.toList();
+    }
+
+    @Override
+    public void streamMessagesByUserId(int userId, Consumer<Message> sink) {
+        // kopian tas under låset, sink anropas utan det eftersom den får blockera
+        getMessagesByUserId(userId).forEach(sink);
+    }
+
+    @Override
+    public List<Message> getMessagesByUserId(int userId, Message before, int limit) {
+        MessageRing user = byUser.get(userId);
+        if (user == null) {
+            return List.of();
+        }
+        List<Message> page = user.newest(limit, m -> before == null || ORDER.compare(m, before) < 0);
+        page.sort(ORDER);
+        return page;
+    }
+
+    @Override
+    public List<Message> getRecentMessagesByRoom(String room, int limit) {
+        MessageRing inRoom = byRoom.get(roomKey(room));
+        if (inRoom == null) {
+            return List.of();
+        }
+        // två användare kan ha sparat i rummet i omvänd id-ordning
+        List<Message> recent = inRoom.newest(limit, m -> true);
+        recent.sort(ORDER);
+        return recent;
+    }
+
+    @Override
+    public void forEachMessage(Consumer<Message> sink) {
+        List<Message> all = new ArrayList<>(byId.values());
+        all.sort(Comparator.comparingInt(Message::getId));
+        all.forEach(sink);
+    }
+
+    @Override
+    public List<Message> getMessagesByIds(List<Integer> ids) {
+        List<Message> found = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            Message message = byId.get(id);
+            if (message != null) {
+                found.add(message);
+            }
+        }
+        return found;
+    }
+
+    public void setEvictionListener(Consumer<Message> listener) {
+        this.evictionListener = listener;
+    }
+
+    public long evicted() {
+        return evicted.sum();
+    }
+
+    // rum jämförs utan skiftläge
+    private static String roomKey(String room) {
+        return room.toLowerCase(Locale.ROOT);
     }
 
     // valfritt: för att testa lättare
     public void seedTestData() {
-        messages.add(new Message(1, "Hej!", LocalDateTime.now()));
-        messages.add(new Message(2, "Hallå där!", LocalDateTime.now()));
+        saveMessage(new Message(1, "Hej!", LocalDateTime.now()));
+        saveMessage(new Message(2, "Hallå där!", LocalDateTime.now()));
     }
 }
-
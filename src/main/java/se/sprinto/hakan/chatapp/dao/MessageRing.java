@@ -0,0 +1,99 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import se.sprinto.hakan.chatapp.model.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * De senaste meddelandena för en nyckel (användare eller rum) i en ringbuffert.
+ * Arrayen växer tills capacity är nådd, sedan skrivs det äldsta över.
+ * Varje ring har sitt eget lås, så olika användare stör inte varandra.
+ */
+final class MessageRing {
+
+    private final int capacity;
+    private Message[] slots;
+    // index för det äldsta meddelandet
+    private int head;
+    private int size;
+
+    MessageRing(int capacity) {
+        // en tom ring har ingen plats att skriva över, första add() skulle krascha
+        if (capacity < 1) {
+            throw new IllegalArgumentException("❌ MessageRing behöver capacity > 0, fick " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new Message[Math.min(capacity, 16)];
+    }
+
+    /**
+     * lägger till sist
+     * @return meddelandet som knuffades ut, eller null
+     */
+    synchronized Message add(Message message) {
+        if (size == slots.length && slots.length < capacity) {
+            grow();
+        }
+        if (size < slots.length) {
+            slots[(head + size) % slots.length] = message;
+            size++;
+            return null;
+        }
+        Message evicted = slots[head];
+        slots[head] = message;
+        head = (head + 1) % slots.length;
+        return evicted;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    // letar från det nyaste, det som letas efter brukar ligga sist
+    synchronized boolean containsId(int id) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (slots[(head + i) % slots.length].getId() == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // alla, äldst först
+    synchronized List<Message> toList() {
+        List<Message> all = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            all.add(slots[(head + i) % slots.length]);
+        }
+        return all;
+    }
+
+    /**
+     * de limit nyaste som matchar filter
+     * @return äldst först
+     */
+    synchronized List<Message> newest(int limit, Predicate<Message> filter) {
+        List<Message> result = new ArrayList<>(Math.min(limit, size));
+        for (int i = size - 1; i >= 0 && result.size() < limit; i--) {
+            Message message = slots[(head + i) % slots.length];
+            if (filter.test(message)) {
+                result.add(message);
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    // lägger meddelandena i ordning från index 0 i en större array
+    private void grow() {
+        Message[] bigger = new Message[Math.min(capacity, slots.length * 2)];
+        for (int i = 0; i < size; i++) {
+            bigger[i] = slots[(head + i) % slots.length];
+        }
+        slots = bigger;
+        head = 0;
+    }
+}
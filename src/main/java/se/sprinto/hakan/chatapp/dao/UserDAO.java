@@ -1,9 +1,65 @@
 package se.sprinto.hakan.chatapp.dao;
 
 import se.sprinto.hakan.chatapp.model.User;
+import se.sprinto.hakan.chatapp.util.PasswordUtil;
+
+import java.util.function.Consumer;
 
 public interface UserDAO {
-    User login(String username, String password);
 
-    User register(User user);
+    /**
+     * loggar in med användarnamn och lösenord. BCrypt körs först när
+     * användaren är hämtad, så ingen databasanslutning hålls under tiden
+     * @return användaren om lösenordet stämmer, null annars
+     */
+    default User login(String username, String password) {
+        User user = findByUsername(username);
+        if (user == null || !PasswordUtil.verifyPassword(password, user.getPassword())) {
+            return null;
+        }
+        return user;
+    }
+
+    /**
+     * hashar lösenordet och sparar användaren
+     * @return samma user-objekt med genererat id, null om namnet är taget
+     */
+    default User register(User user) {
+        User saved = registerHashed(new User(user.getUsername(), PasswordUtil.hashPassword(user.getPassword())));
+        if (saved == null) {
+            return null;
+        }
+        user.setId(saved.getId());
+        return user;
+    }
+
+    /**
+     * som register men lösenordet är redan hashat, så att BCrypt kan köras
+     * någon annanstans än där användaren sparas
+     * @return användaren med genererat id, null om namnet är taget
+     */
+    User registerHashed(User user);
+
+    /**
+     * @return användaren med id och lösenordets hash, null om den inte finns
+     */
+    User findByUsername(String username);
+
+    /**
+     * hashar och sparar ett nytt lösenord
+     * @return false om användaren inte finns
+     */
+    boolean changePassword(String username, String newPassword);
+
+    /**
+     * byter hashen bara om den fortfarande är expectedHash, så att en omhashning
+     * i bakgrunden aldrig skriver över ett lösenord som just har bytts
+     * @return false om användaren inte finns eller hashen redan är ändrad
+     */
+    boolean replacePasswordHash(String username, String expectedHash, String newHash);
+
+    /**
+     * alla användarnamn, en i taget, t.ex för att fylla namnfiltret när servern startar
+     */
+    void forEachUsername(Consumer<String> sink);
 }
@@ -1,10 +1,11 @@
 package se.sprinto.hakan.chatapp.dao;
-import se.sprinto.hakan.chatapp.model.Message;
 import se.sprinto.hakan.chatapp.model.User;
 import se.sprinto.hakan.chatapp.util.DatabaseUtil;
 import se.sprinto.hakan.chatapp.util.PasswordUtil;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.function.Consumer;
 
 
 /**
@@ -13,16 +14,33 @@ import java.sql.*;
  */
 
 public class UserDatabaseDAO implements UserDAO {
+
+    // antal meddelanden som loginWithMessages hämtar direkt
+    public static final int DEFAULT_HISTORY_PAGE = 20;
+
+    private final MessageDAO messageDAO;
+
+    public UserDatabaseDAO() {
+        this(new MessageDatabaseDAO());
+    }
+
+    /**
+     * @param messageDAO där loginWithMessages hämtar historiken
+     */
+    public UserDatabaseDAO(MessageDAO messageDAO) {
+        this.messageDAO = messageDAO;
+    }
+
     /**
-     * Loggar in användare med username och password.
+     * Hämtar användaren med username, lösenordet kontrolleras i UserDAO.login()
+     * efter att anslutningen har lämnats tillbaka till poolen.
      *
      * @param username
-     * @param password
-     * @return user-objekt om inloggning lyckas, null annars.
+     * @return user-objekt med id och hash, null om användaren inte finns.
      */
 
     @Override
-    public User login(String username, String password) {
+    public User findByUsername(String username) {
         String sql = """
                 SELECT id, username, password 
                 FROM users 
@@ -35,18 +53,11 @@ public class UserDatabaseDAO implements UserDAO {
 
            try(ResultSet rs = stmt.executeQuery()) {
                if (rs.next()) {
-                   String storedHash = rs.getString("password");
-
-                   // jämför
-                   if (!PasswordUtil.verifyPassword(password, storedHash)) {
-                       return null; // FEL LÖSEN!
-                   }
-                   User user = new User(
+                   return new User(
                            rs.getInt("id"),
                            rs.getString("username"),
-                           storedHash
+                           rs.getString("password")
                    );
-                   return user;
                }
            }
 
@@ -57,27 +68,83 @@ public class UserDatabaseDAO implements UserDAO {
         return null;
     }
 
+    /**
+     * Byter lösenord, det nya hashas innan det sparas
+     *
+     * @return true om användaren fanns
+     */
+
+    @Override
+    public boolean changePassword(String username, String newPassword) {
+        String sql = "UPDATE users SET password = ? WHERE username = ?";
+        String hashed = PasswordUtil.hashPassword(newPassword);
+
+        try (Connection conn = DatabaseUtil.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, hashed);
+            stmt.setString(2, username);
+            return stmt.executeUpdate() > 0;
+
+        } catch (SQLException e) {
+            throw new RuntimeException("❌Kunde inte byta lösenord: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean replacePasswordHash(String username, String expectedHash, String newHash) {
+        String sql = "UPDATE users SET password = ? WHERE username = ? AND password = ?";
+
+        try (Connection conn = DatabaseUtil.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, newHash);
+            stmt.setString(2, username);
+            stmt.setString(3, expectedHash);
+            return stmt.executeUpdate() > 0;
+
+        } catch (SQLException e) {
+            throw new RuntimeException("❌Kunde inte byta lösenordets hash: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> sink) {
+        try (Connection conn = DatabaseUtil.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT username FROM users",
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+            stmt.setFetchSize(1000);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    sink.accept(rs.getString(1));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("❌Fel vid hämtning av användarnamn: " + e.getMessage());
+        }
+    }
+
     /**
      * Regristrerar en ny användare i databasen
      *
-     * @param user User-objekt med användarnamn &lösenord
+     * @param user User-objekt med användarnamn & redan hashat lösenord
      * @return user-objekt med genererad id, null annars.
      */
 
     @Override
-    public User register(User user) {
+    public User registerHashed(User user) {
         String sql = """
         INSERT INTO users (username, password)
          VALUES (?, ?)
          """;
 
-        String hashed = PasswordUtil.hashPassword(user.getPassword());
-
         try (Connection conn = DatabaseUtil.getInstance().getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
             stmt.setString(1, user.getUsername());
-            stmt.setString(2, hashed);
+            stmt.setString(2, user.getPassword());
 
             int rowsAffected = stmt.executeUpdate();
             if (rowsAffected == 0) {
@@ -93,77 +160,45 @@ public class UserDatabaseDAO implements UserDAO {
                 }
 
         } catch (SQLException e) {
-            //MySQL error kod 1062: username redan finns (UNIK index)
-            if (e.getErrorCode() == 1062) {
+            //MySQL error kod 1062: username redan finns (UNIK index), H2 har 23505
+            if (e.getErrorCode() == 1062 || e.getErrorCode() == 23505) {
                 return null;
 
             }
-
+            // allt annat är serverns fel, inte ett upptaget namn
+            throw new RuntimeException("❌Kunde inte registrera användaren: " + e.getMessage());
         }
-       return null;
 
     }
-        /**
-         * För VG -> Login med JOIN som hämtar användaren tsm med meddelanden
-         * @param username användarnamn
-         * @param password lösenord
-         * @return user objekt med meddelanden, null annars.
-         */
-
-        public User loginWithMessages (String username, String password){
-            String sql = """
-                    SELECT 
-                    u.id AS user_id,
-                    u.username, 
-                    u.password AS password_hash,
-                    m.id AS message_id,
-                    m.user_id AS msg_user_id, 
-                    m.message AS msg_text, 
-                    m.timestamp 
-                    FROM users u 
-                    LEFT JOIN messages m ON u.id = m.user_id 
-                    WHERE u.username = ?
-                    ORDER BY m.timestamp;
-                    """;
-            try (Connection conn = DatabaseUtil.getInstance().getConnection();
-                 PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-                stmt.setString(1, username);
-
-                try (ResultSet rs = stmt.executeQuery()) {
-                    User user = null;
-                    while (rs.next()) {
-                        if (user == null) {
-                            String hashed = rs.getString("password_hash");
-                            if (!PasswordUtil.verifyPassword(password, hashed)) {
-                                return null;
-                            }
-                            user = new User(
-                                    rs.getInt("user_id"),
-                                    rs.getString("username"),
-                                    hashed
-                            );
-                        }
-                        //kolla OM DE FINNS meddelanden
-                        int messageId = rs.getInt("message_id");
-                        if (!rs.wasNull()) {
-                            Message message = new Message(
-                                    rs.getInt("msg_user_id"),
-                                    rs.getString("msg_text"),
-                                    rs.getTimestamp("timestamp").toLocalDateTime());
-                            user.addMessage(message);
-                            message.setId(messageId);
-
-                        }
-                    }
-                    {
-                    }
-                    return user;
-                }
-            } catch (SQLException e) {
-                System.err.println("Fel vid inloggning med JOIN " + e.getMessage());
-                e.printStackTrace();
-            }
-            return null;
+    /**
+     * För VG -> Login som hämtar användaren tsm med de senaste meddelandena.
+     * Förut en LEFT JOIN där användarnamn och hash upprepades på varje rad,
+     * nu två steg: login() (en fråga och en BCrypt), sedan en sida
+     * meddelanden på user_id. Äldre sidor hämtas via user.getMessages(before, limit)
+     *
+     * @param username användarnamn
+     * @param password lösenord
+     * @return user objekt med de senaste meddelandena, null annars.
+     */
+
+    public User loginWithMessages(String username, String password) {
+        return loginWithMessages(username, password, DEFAULT_HISTORY_PAGE);
+    }
+
+    public User loginWithMessages(String username, String password, int limit) {
+        User user = login(username, password);
+        if (user != null) {
+            attachMessages(user, limit);
         }
+        return user;
+    }
+
+    /**
+     * för den som redan är inloggad, ingen ny lösenordskontroll
+     */
+    public void attachMessages(User user, int limit) {
+        int userId = user.getId();
+        user.setMessages(new ArrayList<>(messageDAO.getMessagesByUserId(userId, null, limit)));
+        user.setMessagePager((before, pageLimit) -> messageDAO.getMessagesByUserId(userId, before, pageLimit));
     }
+}
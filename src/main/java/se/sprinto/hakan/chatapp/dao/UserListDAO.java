@@ -4,31 +4,89 @@ package se.sprinto.hakan.chatapp.dao;
 import se.sprinto.hakan.chatapp.model.User;
 import se.sprinto.hakan.chatapp.util.PasswordUtil;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+/**
+ * Användare i minnet, trådsäkert och med uppslag på användarnamn i O(1).
+ * Följer samma regler som UserDatabaseDAO: användarnamn är unika utan
+ * hänsyn till skiftläge (som MySQL:s standard-collation) och register()
+ * returnerar null om namnet redan är taget.
+ */
 public class UserListDAO implements UserDAO {
 
-    private final List<User> users = new ArrayList<>();
-    private int nextId = 1;
+    // nyckeln är användarnamnet i gemener, värdet har hashen, aldrig klartext
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
 
     @Override
     public User register(User user) {
-        String hashed = PasswordUtil.hashPassword(user.getPassword());
+        String key = key(user.getUsername());
+        // BCrypt är dyrt, ett taget namn avvisas innan det hashas
+        if (users.containsKey(key)) {
+            return null;
+        }
+        return UserDAO.super.register(user);
+    }
 
-        user.setId(nextId++);
-        users.add(user);
+    @Override
+    public User registerHashed(User user) {
+        // id delas ut innan användaren syns för andra trådar. förlorar man racet
+        // nedan blir det ett hål i numreringen, precis som med AUTO_INCREMENT
+        User stored = new User(nextId.getAndIncrement(), user.getUsername(), user.getPassword());
+        // två som registrerar samma namn samtidigt: bara den första kommer in
+        if (users.putIfAbsent(key(user.getUsername()), stored) != null) {
+            return null;
+        }
+        user.setId(stored.getId());
         return user;
     }
 
     @Override
-    public User login(String username, String password) {
-       Optional<User> found = users.stream()
-                .filter(u -> u.getUsername().equals(username) && PasswordUtil.verifyPassword(password,u.getPassword()))
-                .findFirst();
-        return found.orElse(null);
-           }
+    public User findByUsername(String username) {
+        User found = users.get(key(username));
+        // en egen kopia, som när den läses från databasen
+        return found == null ? null : new User(found.getId(), found.getUsername(), found.getPassword());
+    }
+
+    @Override
+    public boolean changePassword(String username, String newPassword) {
+        String hashed = PasswordUtil.hashPassword(newPassword);
+        // en ny User istället för setPassword, så att ingen läsare ser ett halvändrat objekt
+        return users.computeIfPresent(key(username),
+                (key, old) -> new User(old.getId(), old.getUsername(), hashed)) != null;
+    }
+
+    @Override
+    public boolean replacePasswordHash(String username, String expectedHash, String newHash) {
+        boolean[] replaced = {false};
+        users.computeIfPresent(key(username), (key, old) -> {
+            if (!old.getPassword().equals(expectedHash)) {
+                return old;
+            }
+            replaced[0] = true;
+            return new User(old.getId(), old.getUsername(), newHash);
+        });
+        return replaced[0];
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> sink) {
+        for (User user : users.values()) {
+            sink.accept(user.getUsername());
+        }
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
 
     // valfritt: för testsyfte
     public void seedUsers() {
@@ -36,5 +94,3 @@ public class UserListDAO implements UserDAO {
         register(new User("hakan", "password"));
     }
 }
-
-
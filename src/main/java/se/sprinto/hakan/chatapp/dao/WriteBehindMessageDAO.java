@@ -0,0 +1,306 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import se.sprinto.hakan.chatapp.model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Sparar meddelanden i bakgrunden istället för direkt i chattråden.
+ * saveMessage() lägger bara meddelandet i en begränsad kö, en egen tråd
+ * samlar ihop det som väntar och skriver allt med en batch (saveMessages)
+ * när batchen är full eller tidsfönstret har gått.
+ *
+ * Är kön full väntar avsändaren en stund (backpressure), så en långsam
+ * databas bromsar chatten istället för att minnet tar slut.
+ * Läsningar väntar först in det som redan köats, så /mymsgs direkt efter
+ * ett meddelande visar det.
+ */
+public class WriteBehindMessageDAO implements MessageDAO {
+
+    public enum Durability {
+        // saveMessage returnerar när meddelandet ligger i kön, går servern ner kan de senaste försvinna
+        ASYNC,
+        // saveMessage väntar tills batchen är committad (group commit), fortfarande en skrivning per batch
+        SYNC
+    }
+
+    /**
+     * får veta hur det gick för varje meddelande som gått in i saveMessage, en gång per meddelande.
+     * anropas från skrivtråden (eller avsändaren om det aldrig kom in i kön) innan saveMessage
+     * i SYNC-läget returnerar, så håll det kort
+     */
+    @FunctionalInterface
+    public interface WriteListener {
+        // saved = true: meddelandena är skrivna och har fått id
+        void written(List<Message> messages, boolean saved);
+    }
+
+    // ett meddelande i kön, eller en markering (message == null) som skrivtråden ska reagera på direkt
+    private record Entry(Message message, CompletableFuture<Void> done) {
+
+        // någon väntar på svaret (SYNC, en läsning eller close)
+        boolean urgent() {
+            return message == null || done != null;
+        }
+    }
+
+    private final MessageDAO delegate;
+    private final Durability durability;
+    private final int batchSize;
+    private final long flushMillis;
+    private final long putTimeoutMillis;
+
+    private final BlockingQueue<Entry> queue;
+    private final Thread flusher;
+    // meddelanden som köats men inte skrivits än (inkl de som skrivs just nu)
+    private final AtomicInteger unflushed = new AtomicInteger();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile boolean closed;
+    private volatile WriteListener listener;
+
+    public WriteBehindMessageDAO(MessageDAO delegate, Durability durability, int capacity,
+                                 int batchSize, long flushMillis, long putTimeoutMillis) {
+        this.delegate = delegate;
+        this.durability = durability;
+        this.batchSize = batchSize;
+        this.flushMillis = flushMillis;
+        this.putTimeoutMillis = putTimeoutMillis;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.flusher = new Thread(this::flushLoop, "chat-message-writer");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    @Override
+    public void saveMessage(Message message) {
+        CompletableFuture<Void> done = durability == Durability.SYNC ? new CompletableFuture<>() : null;
+        enqueue(new Entry(message, done));
+        if (done != null) {
+            await(done);
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesByUserId(int userId) {
+        flush();
+        return delegate.getMessagesByUserId(userId);
+    }
+
+    @Override
+    public void streamMessagesByUserId(int userId, Consumer<Message> sink) {
+        flush();
+        delegate.streamMessagesByUserId(userId, sink);
+    }
+
+    @Override
+    public List<Message> getMessagesByUserId(int userId, Message before, int limit) {
+        flush();
+        return delegate.getMessagesByUserId(userId, before, limit);
+    }
+
+    @Override
+    public List<Message> getRecentMessagesByRoom(String room, int limit) {
+        flush();
+        return delegate.getRecentMessagesByRoom(room, limit);
+    }
+
+    @Override
+    public void forEachMessage(Consumer<Message> sink) {
+        flush();
+        delegate.forEachMessage(sink);
+    }
+
+    @Override
+    public List<Message> getMessagesByIds(List<Integer> ids) {
+        flush();
+        return delegate.getMessagesByIds(ids);
+    }
+
+    /**
+     * väntar tills allt som köats före anropet är skrivet
+     */
+    public void flush() {
+        if (unflushed.get() == 0 || closed) {
+            return;
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        enqueue(new Entry(null, done));
+        await(done);
+    }
+
+    /**
+     * skriver det som är kvar i kön och stoppar skrivtråden, anropas när servern stängs
+     */
+    public void close() {
+        closed = true;
+        // väck skrivtråden om den står och väntar, är kön full är den inte ledig ändå
+        queue.offer(new Entry(null, null));
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void setWriteListener(WriteListener listener) {
+        this.listener = listener;
+    }
+
+    public int pending() {
+        return unflushed.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    private void enqueue(Entry entry) {
+        if (closed) {
+            notifyListener(entry.message(), false);
+            throw new RuntimeException("❌ Servern stängs, meddelandet sparades inte");
+        }
+        if (entry.message() != null) {
+            unflushed.incrementAndGet();
+        }
+        try {
+            if (!queue.offer(entry, putTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                unqueued(entry);
+                throw new RuntimeException("❌ Databasen hänger inte med, meddelandet sparades inte");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            unqueued(entry);
+            throw new RuntimeException("❌ Avbruten medan meddelandet köades");
+        }
+    }
+
+    private void unqueued(Entry entry) {
+        if (entry.message() != null) {
+            unflushed.decrementAndGet();
+            notifyListener(entry.message(), false);
+        }
+    }
+
+    private void notifyListener(Message message, boolean saved) {
+        if (message != null) {
+            notifyListener(List.of(message), saved);
+        }
+    }
+
+    private void notifyListener(List<Message> messages, boolean saved) {
+        WriteListener current = listener;
+        if (current == null || messages.isEmpty()) {
+            return;
+        }
+        try {
+            current.written(messages, saved);
+        } catch (RuntimeException e) {
+            // skrivtråden får inte dö för att en lyssnare krånglar
+            System.out.println("❌ Fel i lyssnaren för sparade meddelanden: " + e.getMessage());
+        }
+    }
+
+    private static void await(CompletableFuture<Void> done) {
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("❌ Avbruten medan meddelanden sparades");
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * skrivtråden: väntar på första meddelandet, samlar sedan på sig fler
+     * tills batchen är full eller flushMillis har gått, och skriver allt på en gång
+     */
+    private void flushLoop() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (!closed) {
+            try {
+                Entry first = queue.poll(flushMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMillis);
+                // väntar någon på svaret skrivs det som redan hunnit köas direkt,
+                // så blir det ändå en skrivning för alla som väntar (group commit)
+                boolean hurry = first.urgent();
+                while (batch.size() < batchSize) {
+                    int from = batch.size();
+                    queue.drainTo(batch, batchSize - batch.size());
+                    for (int i = from; i < batch.size() && !hurry; i++) {
+                        hurry = batch.get(i).urgent();
+                    }
+                    long left = deadline - System.nanoTime();
+                    if (hurry || batch.size() >= batchSize || left <= 0) {
+                        break;
+                    }
+                    Entry next = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    hurry = next.urgent();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                closed = true;
+            }
+            write(batch);
+            batch.clear();
+        }
+        // servern stängs: töm kön
+        queue.drainTo(batch, batchSize);
+        while (!batch.isEmpty()) {
+            write(batch);
+            batch.clear();
+            queue.drainTo(batch, batchSize);
+        }
+    }
+
+    private void write(List<Entry> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            if (entry.message() != null) {
+                messages.add(entry.message());
+            }
+        }
+        RuntimeException error = null;
+        try {
+            delegate.saveMessages(messages);
+        } catch (RuntimeException e) {
+            error = e;
+            failed.addAndGet(messages.size());
+            System.out.println("❌ " + messages.size() + " meddelanden kunde inte sparas: " + e.getMessage());
+        }
+        // före unflushed och futures, så den som väntar på flush/SYNC ser lyssnarens ändringar
+        notifyListener(messages, error == null);
+        unflushed.addAndGet(-messages.size());
+        for (Entry entry : batch) {
+            if (entry.done() == null) {
+                continue;
+            }
+            // en markering säger bara "allt före mig är klart", den misslyckas inte
+            if (error != null && entry.message() != null) {
+                entry.done().completeExceptionally(error);
+            } else {
+                entry.done().complete(null);
+            }
+        }
+    }
+}
@@ -1,24 +1,41 @@
 package se.sprinto.hakan.chatapp.model;
 
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 
 public class Message {
+    // rummet alla hamnar i när de loggar in
+    public static final String DEFAULT_ROOM = "lobby";
+    // så noga databasen sparar tiden (TIMESTAMP(6), se SchemaManager). ett meddelande i minnet
+    // ska ha exakt samma tid som när det läses tillbaka, annars hoppar /more över rader
+    public static final ChronoUnit TIMESTAMP_PRECISION = ChronoUnit.MICROS;
+
     private int id;
     //använder endast Id här, eftersom hela Usern inte behövs
     private int userId;
+    private String room;
     private String text;
     private LocalDateTime timestamp;
 
     public Message(int userId, String text, LocalDateTime timestamp) {
+        this(userId, DEFAULT_ROOM, text, timestamp);
+    }
+
+    public Message(int userId, String room, String text, LocalDateTime timestamp) {
         this.userId = userId;
+        this.room = room;
         this.text = text;
-        this.timestamp = timestamp;
+        this.timestamp = timestamp.truncatedTo(TIMESTAMP_PRECISION);
 
     }
     public int getUserId() {
         return userId;
     }
 
+    public String getRoom() {
+        return room;
+    }
+
     public int getId() {
         return id;
     }
@@ -5,10 +5,21 @@ import java.util.Collections;
 import java.util.List;
 
 public class User {
+
+    /**
+     * hämtar en sida av användarens historik, sätts av DAO:n när
+     * meddelandena ska laddas först när någon frågar efter dem
+     */
+    @FunctionalInterface
+    public interface MessagePager {
+        List<Message> page(Message before, int limit);
+    }
+
     private int id;
     private String username;
     private String passwordHash;
     private List<Message> messages = new ArrayList<>();
+    private MessagePager pager;
 
     public User() {
     }
@@ -58,5 +69,24 @@ public class User {
     public void setMessages(List<Message> messages) {
         this.messages = messages;
     }
+
+    public void setMessagePager(MessagePager pager) {
+        this.pager = pager;
+    }
+
+    /**
+     * meddelandena före before (null = de senaste), äldst först.
+     * finns en pager hämtas sidan därifrån, annars från de inlästa
+     */
+    public List<Message> getMessages(Message before, int limit) {
+        if (pager != null) {
+            return pager.page(before, limit);
+        }
+        int end = before == null ? messages.size() : messages.indexOf(before);
+        if (end < 0) {
+            end = messages.size();
+        }
+        return Collections.unmodifiableList(messages.subList(Math.max(0, end - limit), end));
+    }
 }
 
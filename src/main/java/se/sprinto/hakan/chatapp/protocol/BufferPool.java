@@ -0,0 +1,53 @@
+package se.sprinto.hakan.chatapp.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Återanvändbara buffertar för avkodning.
+ * En anslutning lånar bara en buffert när en frame kommit halvvägs och
+ * lämnar tillbaka den så fort framen är klar, så tusentals tysta
+ * klienter håller inga buffertar alls.
+ */
+public final class BufferPool {
+
+    public static final int BUFFER_SIZE = 4096;
+
+    private static final BufferPool SHARED = new BufferPool(1024);
+
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger freeCount = new AtomicInteger();
+    private final int maxPooled;
+
+    public BufferPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        freeCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    // buffertar med annan storlek (stora frames) slängs bara
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != BUFFER_SIZE) {
+            return;
+        }
+        if (freeCount.incrementAndGet() > maxPooled) {
+            freeCount.decrementAndGet();
+            return;
+        }
+        free.add(buffer);
+    }
+}
@@ -0,0 +1,207 @@
+package se.sprinto.hakan.chatapp.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Ett meddelande från servern, oberoende av protokoll.
+ *
+ * Binärt format (big endian), en frame:
+ * <pre>
+ *   int    längd på resten av framen
+ *   byte   typ (FrameType)
+ *   int    avsändarens användar-id (0 = servern)
+ *   long   serverns tidsstämpel i epoch-millis
+ *   short  längd på avsändarens namn, följt av namnet i UTF-8
+ *   byte[] själva texten i UTF-8 (resten av framen)
+ * </pre>
+ * Samma Frame kan skickas till många klienter. Båda kodningarna (text-raden för
+ * gamla telnet-klienter och den binära) görs högst en gång och delas sedan av alla
+ * mottagare som read-only buffertar.
+ */
+public final class Frame {
+
+    // första raden en klient skickar för att byta till binärt protokoll
+    public static final String BINARY_HELLO = "/proto binary";
+    // serverns svar (som text), allt efter den här raden är binära frames
+    public static final String BINARY_ACK = "+BINARY";
+
+    // typ + id + tid + namnlängd
+    static final int HEADER_BYTES = 1 + 4 + 8 + 2;
+    // skydd mot trasiga eller elaka klienter
+    public static final int MAX_FRAME_BYTES = 64 * 1024;
+
+    private final FrameType type;
+    private final int senderId;
+    private final String senderName;
+    private final LocalDateTime time;
+    private final String text;
+
+    private volatile ByteBuffer textBuffer;
+    private volatile ByteBuffer binaryBuffer;
+
+    public Frame(FrameType type, int senderId, String senderName, LocalDateTime time, String text) {
+        this.type = type;
+        this.senderId = senderId;
+        this.senderName = senderName == null ? "" : senderName;
+        this.time = time;
+        this.text = text;
+    }
+
+    public static Frame system(String text) {
+        return new Frame(FrameType.SYSTEM, 0, "", LocalDateTime.now(), text);
+    }
+
+    public static Frame error(String text) {
+        return new Frame(FrameType.ERROR, 0, "", LocalDateTime.now(), text);
+    }
+
+    public static Frame chat(int senderId, String senderName, String text) {
+        return new Frame(FrameType.CHAT, senderId, senderName, LocalDateTime.now(), text);
+    }
+
+    public static Frame privateMessage(int senderId, String senderName, String text) {
+        return new Frame(FrameType.PRIVATE, senderId, senderName, LocalDateTime.now(), text);
+    }
+
+    public static Frame session(String token) {
+        return new Frame(FrameType.SESSION, 0, "", LocalDateTime.now(), token);
+    }
+
+    // ett sparat meddelande, time är när det skrevs
+    public static Frame history(LocalDateTime time, String text) {
+        return new Frame(FrameType.HISTORY, 0, "", time, text);
+    }
+
+    public static Frame input(String text) {
+        return new Frame(FrameType.INPUT, 0, "", LocalDateTime.now(), text);
+    }
+
+    public FrameType getType() {
+        return type;
+    }
+
+    public int getSenderId() {
+        return senderId;
+    }
+
+    public String getSenderName() {
+        return senderName;
+    }
+
+    public LocalDateTime getTime() {
+        return time;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * raden som textprotokollet alltid har skickat, så att gamla klienter
+     * (telnet, ChatClient) ser exakt samma sak som förut
+     */
+    public String toTextLine() {
+        return switch (type) {
+            case CHAT -> senderName + ": [" + senderName + "] " + text;
+            case PRIVATE -> senderName + " (privat): " + text;
+            case HISTORY -> "[" + time + "] " + text;
+            case SESSION -> "🔑 Anslut igen med: /resume " + text;
+            default -> text;
+        };
+    }
+
+    /**
+     * kodar framen för en enda mottagare, en vanlig heap-buffert
+     * @param binary binära protokollet, annars text-raden med radbrytning
+     */
+    public ByteBuffer encode(boolean binary) {
+        return ByteBuffer.wrap(binary ? encodeBinary() : encodeText());
+    }
+
+    /**
+     * kodar framen EN gång för att skickas till många klienter.
+     * direct så att kanalen kan skriva den utan att kopiera, read-only så att
+     * ingen mottagare kan ändra innehållet för de andra. varje anrop ger
+     * en duplicate() med egen position men samma bytes.
+     */
+    public ByteBuffer encodeShared(boolean binary) {
+        ByteBuffer buffer = binary ? binaryBuffer : textBuffer;
+        if (buffer == null) {
+            // kodar två trådar samtidigt blir resultatet identiskt, så inget lås behövs
+            buffer = shared(binary ? encodeBinary() : encodeText());
+            if (binary) {
+                binaryBuffer = buffer;
+            } else {
+                textBuffer = buffer;
+            }
+        }
+        return buffer.duplicate();
+    }
+
+    private static ByteBuffer shared(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private byte[] encodeText() {
+        return (toTextLine() + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] encodeBinary() {
+        byte[] name = senderName.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        int length = HEADER_BYTES + name.length + payload.length;
+        if (length > MAX_FRAME_BYTES) {
+            throw new IllegalArgumentException("Frame är för stor: " + length + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length)
+                .put(type.code())
+                .putInt(senderId)
+                .putLong(time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli())
+                .putShort((short) name.length)
+                .put(name)
+                .put(payload);
+        return buffer.array();
+    }
+
+    /**
+     * skriver den binära framen till en vanlig OutputStream (klientsidan)
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(encodeBinary());
+    }
+
+    /**
+     * läser en hel frame (utan längdfältet) från bufferten
+     * @param body exakt length bytes, position flyttas till slutet
+     */
+    static Frame decodeBody(ByteBuffer body, int length) {
+        int end = body.position() + length;
+        FrameType type = FrameType.fromCode(body.get());
+        int senderId = body.getInt();
+        long millis = body.getLong();
+        int nameLength = body.getShort() & 0xFFFF;
+        if (HEADER_BYTES + nameLength > length) {
+            throw new IllegalArgumentException("Trasig frame, namnet är längre än framen");
+        }
+        String name = readUtf8(body, nameLength);
+        String text = readUtf8(body, end - body.position());
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        return new Frame(type, senderId, name, time, text);
+    }
+
+    private static String readUtf8(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return StandardCharsets.UTF_8.decode(slice).toString();
+    }
+}
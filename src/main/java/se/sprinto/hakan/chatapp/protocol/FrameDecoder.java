@@ -0,0 +1,112 @@
+package se.sprinto.hakan.chatapp.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Plockar ut binära frames ur inkommande bytes, utan att blockera.
+ * Hela frames avkodas direkt ur läsbufferten. Bara när en frame
+ * kommer i flera delar kopieras början till en lånad buffert från BufferPool.
+ * En instans per anslutning, den är inte trådsäker.
+ */
+public final class FrameDecoder {
+
+    private final BufferPool pool;
+    // halv frame från förra läsningen (i skrivläge), null om inget väntar
+    private ByteBuffer pending;
+
+    public FrameDecoder(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    public void decode(ByteBuffer in, Consumer<Frame> frames) throws IOException {
+        try {
+            if (pending != null && !fillPending(in, frames)) {
+                return;
+            }
+            while (in.remaining() >= 4) {
+                int length = checkedLength(in.getInt(in.position()));
+                if (in.remaining() < 4 + length) {
+                    break;
+                }
+                in.position(in.position() + 4);
+                frames.accept(Frame.decodeBody(in, length));
+            }
+            if (in.hasRemaining()) {
+                pending = pendingBuffer(in);
+                pending.put(in);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Trasig frame: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * fyller på den halva framen
+     * @return true om den blev klar och resten av in kan avkodas som vanligt
+     */
+    private boolean fillPending(ByteBuffer in, Consumer<Frame> frames) throws IOException {
+        if (pending.position() < 4) {
+            copy(in, 4 - pending.position());
+            if (pending.position() < 4) {
+                return false;
+            }
+        }
+        int total = 4 + checkedLength(pending.getInt(0));
+        if (pending.capacity() < total) {
+            // större än en pool-buffert, byt till en egen i exakt rätt storlek
+            ByteBuffer bigger = ByteBuffer.allocate(total);
+            pending.flip();
+            bigger.put(pending);
+            pool.release(pending);
+            pending = bigger;
+        }
+        copy(in, total - pending.position());
+        if (pending.position() < total) {
+            return false;
+        }
+        pending.flip();
+        pending.position(4);
+        Frame frame = Frame.decodeBody(pending, total - 4);
+        release();
+        frames.accept(frame);
+        return true;
+    }
+
+    // en pool-buffert räcker om framen får plats, annars en egen i rätt storlek
+    private ByteBuffer pendingBuffer(ByteBuffer in) throws IOException {
+        if (in.remaining() >= 4) {
+            int total = 4 + checkedLength(in.getInt(in.position()));
+            if (total > BufferPool.BUFFER_SIZE) {
+                return ByteBuffer.allocate(total);
+            }
+        }
+        return pool.acquire();
+    }
+
+    private void copy(ByteBuffer in, int wanted) {
+        int n = Math.min(wanted, in.remaining());
+        ByteBuffer slice = in.slice();
+        slice.limit(n);
+        pending.put(slice);
+        in.position(in.position() + n);
+    }
+
+    private static int checkedLength(int length) throws IOException {
+        if (length < Frame.HEADER_BYTES || length > Frame.MAX_FRAME_BYTES) {
+            throw new IOException("Ogiltig frame-längd: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * lämnar tillbaka bufferten, t.ex när anslutningen stängs
+     */
+    public void release() {
+        if (pending != null) {
+            pool.release(pending);
+            pending = null;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package se.sprinto.hakan.chatapp.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Blockerande läsare för klienten.
+ * Klarar både textrader och binära frames på samma ström, eftersom
+ * servern svarar med text ända tills BINARY_ACK har kommit.
+ * (en BufferedReader går inte att använda, den läser in bytes i förväg)
+ */
+public final class FrameReader {
+
+    private final DataInputStream in;
+
+    public FrameReader(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    /**
+     * en textrad utan radbrytning, null när servern stängt
+     */
+    public String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        String text = line.toString(StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    /**
+     * nästa binära frame, null när servern stängt
+     */
+    public Frame readFrame() throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < Frame.HEADER_BYTES || length > Frame.MAX_FRAME_BYTES) {
+            throw new IOException("Ogiltig frame-längd: " + length);
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        try {
+            return Frame.decodeBody(ByteBuffer.wrap(body), length);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Trasig frame: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package se.sprinto.hakan.chatapp.protocol;
+
+/**
+ * Vad en binär frame innehåller, första byten efter längden.
+ * Klienten behöver alltså inte gissa typen från emojis eller ": " i texten.
+ */
+public enum FrameType {
+    // information och frågor från servern (prompter, välkomsttext ...)
+    SYSTEM(1),
+    // chattmeddelande från någon i samma rum
+    CHAT(2),
+    // privat meddelande via /msg
+    PRIVATE(3),
+    // ett sparat meddelande (/mymsgs, historik), tidsstämpeln är när det skrevs
+    HISTORY(4),
+    // något gick fel, t.ex fel lösenord eller upptaget användarnamn
+    ERROR(5),
+    // sessionsnyckel efter inloggning, klienten skickar /resume <nyckel> när den ansluter igen
+    SESSION(6),
+    // en rad som klienten skriver, enda typen som går från klient till server
+    INPUT(10);
+
+    private final byte code;
+
+    FrameType(int code) {
+        this.code = (byte) code;
+    }
+
+    public byte code() {
+        return code;
+    }
+
+    public static FrameType fromCode(byte code) {
+        for (FrameType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Okänd frame-typ: " + code);
+    }
+}
@@ -0,0 +1,127 @@
+package se.sprinto.hakan.chatapp.search;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Id:n för meddelanden som innehåller ett visst ord, i stigande ordning.
+ * Sparas komprimerat: skillnaden mot föregående id (delta) som varint,
+ * 7 bitar per byte där höga biten säger att fler byte följer. Id:n som
+ * ligger nära varandra tar då oftast en byte istället för fyra.
+ *
+ * En skrivare och många läsare: bytearrayen skrivs bara efter length och
+ * byts ut när den växer, så en läsare kan avkoda det den fick i snapshot()
+ * utan lås.
+ */
+final class PostingList {
+
+    private byte[] bytes = new byte[8];
+    private int length;
+    private int count;
+    private int lastId;
+
+    synchronized void add(int id) {
+        if (id > lastId) {
+            append(id - lastId);
+            lastId = id;
+            count++;
+        } else if (!contains(decode(bytes, length, count), id)) {
+            // kom i fel ordning (ovanligt), bygg om listan sorterad
+            int[] ids = Arrays.copyOf(decode(bytes, length, count), count + 1);
+            ids[count] = id;
+            Arrays.sort(ids);
+            rebuild(ids, ids.length);
+        }
+    }
+
+    /**
+     * tar bort id:n som finns i dead
+     * @return antal som togs bort
+     */
+    synchronized int removeAll(Set<Integer> dead) {
+        int[] ids = decode(bytes, length, count);
+        int kept = 0;
+        for (int id : ids) {
+            if (!dead.contains(id)) {
+                ids[kept++] = id;
+            }
+        }
+        int removed = ids.length - kept;
+        if (removed > 0) {
+            rebuild(ids, kept);
+        }
+        return removed;
+    }
+
+    synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    // alla id:n, stigande
+    int[] toArray() {
+        byte[] snapshot;
+        int snapshotLength;
+        int snapshotCount;
+        synchronized (this) {
+            snapshot = bytes;
+            snapshotLength = length;
+            snapshotCount = count;
+        }
+        return decode(snapshot, snapshotLength, snapshotCount);
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    synchronized int bytes() {
+        return length;
+    }
+
+    // de första n i ids, stigande. ny array så att läsare med en gammal snapshot inte påverkas
+    private void rebuild(int[] ids, int n) {
+        bytes = new byte[Math.max(8, n + 5)];
+        length = 0;
+        count = 0;
+        lastId = 0;
+        for (int i = 0; i < n; i++) {
+            append(ids[i] - lastId);
+            lastId = ids[i];
+            count++;
+        }
+    }
+
+    private void append(int delta) {
+        if (length + 5 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        while ((delta & ~0x7F) != 0) {
+            bytes[length++] = (byte) ((delta & 0x7F) | 0x80);
+            delta >>>= 7;
+        }
+        bytes[length++] = (byte) delta;
+    }
+
+    private static int[] decode(byte[] bytes, int length, int count) {
+        int[] ids = new int[count];
+        int id = 0;
+        int pos = 0;
+        for (int i = 0; i < count && pos < length; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[pos++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            id += delta;
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+}
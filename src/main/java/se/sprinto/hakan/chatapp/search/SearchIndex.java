@@ -0,0 +1,213 @@
+package se.sprinto.hakan.chatapp.search;
+
+import se.sprinto.hakan.chatapp.model.Message;
+import se.sprinto.hakan.chatapp.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Inverterat index över meddelandenas text, för /search.
+ * Varje ord pekar på en PostingList med id:n för meddelandena där ordet finns.
+ * En sökning tar snittet av listorna för alla ord och svarar med de
+ * nyaste träffarna (högst id), utan att någon tabell behöver läsas.
+ *
+ * Indexet ligger bara i minnet. Det byggs från MessageDAO när servern
+ * startar och uppdateras sedan med varje meddelande som sparas.
+ *
+ * Meddelanden som försvinner ur lagringen (t.ex utknuffade ur minnet) markeras
+ * med remove() och hoppas över i sökningar direkt. Att ta bort dem ur listorna
+ * kostar en omkodning per lista, så det görs för alla på en gång i compact()
+ * när det har samlats tillräckligt många.
+ */
+public class SearchIndex {
+
+    // kortare ord än så här indexeras inte, längre kapas
+    private static final int MIN_TOKEN = 2;
+    private static final int MAX_TOKEN = 32;
+    // max antal ord i en sökning
+    public static final int MAX_QUERY_TERMS = 8;
+
+    // compact() lönar sig när så här många är borttagna, eller en fjärdedel av alla
+    private static final int MIN_COMPACT = 1024;
+
+    private final Map<String, PostingList> postings = new ConcurrentHashMap<>();
+    private final LongAdder documents = new LongAdder();
+    // borttagna id:n som fortfarande ligger kvar i någon lista
+    private final Set<Integer> dead = ConcurrentHashMap.newKeySet();
+    private final LongAdder removed = new LongAdder();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final LatencyHistogram queryLatency = new LatencyHistogram();
+
+    /**
+     * lägger till ett sparat meddelande, det måste ha fått sitt id
+     */
+    public void add(Message message) {
+        for (String token : tokenize(message.getText())) {
+            // inne i compute(), så att compact() inte hinner släppa en tom lista under tiden
+            postings.compute(token, (t, list) -> {
+                PostingList current = list != null ? list : new PostingList();
+                current.add(message.getId());
+                return current;
+            });
+        }
+        documents.increment();
+    }
+
+    /**
+     * meddelandet finns inte längre, söks inte fram mer
+     */
+    public void remove(int id) {
+        if (dead.add(id)) {
+            removed.increment();
+        }
+    }
+
+    /**
+     * tar bort de borttagna id:n ur alla listor om det har blivit många nog.
+     * går igenom hela indexet, så anropas från skrivtråden och inte från en sökning
+     * @return antal id:n som städades bort, 0 om det inte behövdes
+     */
+    public int compactIfNeeded() {
+        int waiting = dead.size();
+        if (waiting < Math.max(MIN_COMPACT, documents() / 4) || !compacting.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            Set<Integer> batch = new HashSet<>(dead);
+            for (String term : postings.keySet()) {
+                postings.computeIfPresent(term, (t, list) -> {
+                    list.removeAll(batch);
+                    return list.isEmpty() ? null : list;
+                });
+            }
+            dead.removeAll(batch);
+            return batch.size();
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * meddelanden som innehåller alla ord i query
+     * @return max limit id:n, nyaste först
+     */
+    public List<Integer> search(String query, int limit) {
+        long start = System.nanoTime();
+        try {
+            Set<String> terms = tokenize(query);
+            if (terms.isEmpty()) {
+                return List.of();
+            }
+            List<PostingList> lists = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                PostingList list = postings.get(term);
+                if (list == null) {
+                    return List.of();
+                }
+                lists.add(list);
+            }
+            // kortaste listan först, då blir snittet litet direkt
+            lists.sort(Comparator.comparingInt(PostingList::count));
+            int[] hits = lists.get(0).toArray();
+            for (int i = 1; i < lists.size() && hits.length > 0; i++) {
+                hits = intersect(hits, lists.get(i).toArray());
+            }
+            List<Integer> newest = new ArrayList<>(Math.min(limit, hits.length));
+            for (int i = hits.length - 1; i >= 0 && newest.size() < limit; i--) {
+                if (!dead.contains(hits[i])) {
+                    newest.add(hits[i]);
+                }
+            }
+            return newest;
+        } finally {
+            queryLatency.recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * delar upp texten i ord: gemener, bokstäver och siffror (även åäö),
+     * allt annat skiljer orden åt. varje ord tas med en gång
+     */
+    public static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean word = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                if (i - start >= MIN_TOKEN) {
+                    tokens.add(lower.substring(start, Math.min(i, start + MAX_TOKEN)));
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // båda stigande
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    // meddelanden som går att söka fram
+    public long documents() {
+        return documents.sum() - removed.sum();
+    }
+
+    // borttagna som ligger kvar i listorna tills nästa compact
+    public int removedPending() {
+        return dead.size();
+    }
+
+    public int terms() {
+        return postings.size();
+    }
+
+    // bytes i alla posting-listor (utan själva orden)
+    public long postingBytes() {
+        long total = 0;
+        for (PostingList list : postings.values()) {
+            total += list.bytes();
+        }
+        return total;
+    }
+
+    public LatencyHistogram latency() {
+        return queryLatency;
+    }
+
+    // t.ex "🔎 Sökindex: 1200 meddelanden, 340 ord, 3 KB | sökningar n=3 ..."
+    public String summary() {
+        return "🔎 Sökindex: " + documents() + " meddelanden, " + terms() + " ord, "
+                + (postingBytes() / 1024) + " KB, " + removedPending() + " borttagna att städa"
+                + " | sökningar " + queryLatency.summary();
+    }
+}
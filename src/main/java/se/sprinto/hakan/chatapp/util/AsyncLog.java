@@ -0,0 +1,48 @@
+package se.sprinto.hakan.chatapp.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Konsollogg för servern som skrivs av en egen bakgrundstråd.
+ * System.out.println är synkroniserad och kan blockera, så chattrådarna
+ * lägger bara raden i en kö och går vidare. Är kön full tappas raden
+ * hellre än att chatten får vänta, antalet tappade rader loggas senare.
+ */
+
+public class AsyncLog {
+
+    private static final BlockingQueue<String> QUEUE = new ArrayBlockingQueue<>(8192);
+    private static final AtomicLong DROPPED = new AtomicLong();
+
+    static {
+        Thread writer = new Thread(AsyncLog::writeLoop, "chat-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private AsyncLog() {
+    }
+
+    public static void info(String line) {
+        if (!QUEUE.offer(line)) {
+            DROPPED.incrementAndGet();
+        }
+    }
+
+    private static void writeLoop() {
+        while (true) {
+            try {
+                String line = QUEUE.take();
+                long dropped = DROPPED.getAndSet(0);
+                if (dropped > 0) {
+                    System.out.println("⚠️ " + dropped + " loggrader tappades");
+                }
+                System.out.println(line);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package se.sprinto.hakan.chatapp.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloomfilter för strängar, utan lås.
+ * mightContain() kan svara true för något som aldrig lagts in (falsklarm),
+ * men aldrig false för något som har lagts in.
+ *
+ * Storleken räknas ut från hur många värden som väntas och hur ofta ett
+ * falsklarm får hända: ca 10 bitar per värde och 7 hashar för 1 %.
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bits;
+    private final int hashes;
+
+    /**
+     * @param expected hur många värden som väntas
+     * @param falsePositiveRate t.ex 0.01 för 1 % falsklarm när filtret har expected värden
+     */
+    public BloomFilter(long expected, double falsePositiveRate) {
+        if (expected <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("❌ Bloomfilter behöver expected > 0 och 0 < falsePositiveRate < 1");
+        }
+        double ln2 = Math.log(2);
+        long wanted = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (ln2 * ln2));
+        // avrundat uppåt till hela long
+        this.bits = Math.max(64, (wanted + 63) / 64 * 64);
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expected * ln2));
+        this.words = new AtomicLongArray(Math.toIntExact(bits / 64));
+    }
+
+    public void add(String value) {
+        long hash = hash64(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bits);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long old = words.get(word);
+            // biten är oftast redan satt när filtret börjar bli fullt
+            while ((old & mask) == 0 && !words.compareAndSet(word, old, old | mask)) {
+                old = words.get(word);
+            }
+        }
+    }
+
+    public boolean mightContain(String value) {
+        long hash = hash64(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bits);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long bits() {
+        return bits;
+    }
+
+    public int hashes() {
+        return hashes;
+    }
+
+    // andel satta bitar, falsklarm blir vanligare ju närmare 1 den kommer
+    public double fill() {
+        long set = 0;
+        for (int i = 0; i < words.length(); i++) {
+            set += Long.bitCount(words.get(i));
+        }
+        return (double) set / bits;
+    }
+
+    /**
+     * FNV-1a över tecknen och sedan murmur3:s slutblandning, så att de två halvorna
+     * blir oberoende nog för att användas som två hashar (h1 + i * h2)
+     */
+    static long hash64(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
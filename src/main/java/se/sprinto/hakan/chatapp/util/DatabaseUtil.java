@@ -1,11 +1,13 @@
 package se.sprinto.hakan.chatapp.util;
 
 
-import java.io.FileInputStream;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import javax.sql.DataSource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Properties;
 
@@ -14,11 +16,19 @@ import java.util.Properties;
  * läser från properties-fil och ansluter till databasen
  * databasanslutningar till resten av applikationen.
  * grundkod gjort av Håkan Gleissman ;D
+ *
+ * Anslutningarna kommer från en pool (HikariCP) istället för DriverManager,
+ * så en inloggning eller ett sparat meddelande slipper en ny TCP-anslutning
+ * och inloggning mot MySQL varje gång. DAO:erna stänger som vanligt med
+ * try-with-resources, close() lämnar då bara tillbaka anslutningen till poolen.
+ * Poolen ställs in med db.pool.* i properties-filen.
  */
 
 public class DatabaseUtil {
-    private static DatabaseUtil instance;
     private Properties properties;
+    private final PoolMetrics metrics = new PoolMetrics();
+    // skapas vid första getConnection(), så att properties kan bytas innan (testerna)
+    private volatile HikariDataSource dataSource;
 
     // privat konstuktor för singelton mönstret
 
@@ -47,26 +57,101 @@ public class DatabaseUtil {
         }
     }
 
+    // JVM:en skapar instansen första gången Holder används, helt utan lås efter det.
+    // förut var getInstance() synchronized och anropades av varje DAO-metod,
+    // alla klienttrådar köade alltså på samma monitor (och virtuella trådar låstes fast)
+    private static class Holder {
+        private static final DatabaseUtil INSTANCE = new DatabaseUtil();
+    }
+
     // returnerar den ENDA instansen av databaseutil
-    public static synchronized DatabaseUtil getInstance() {
-        if (instance == null) {
-            instance = new DatabaseUtil();
-        }
-        return instance;
+    public static DatabaseUtil getInstance() {
+        return Holder.INSTANCE;
     }
 
 
     /**
-     * returnerar en connection till databasen
+     * lånar en connection från poolen, close() lämnar tillbaka den
      * @return connection
-     * @throws SQLException
+     * @throws SQLException om ingen anslutning blev ledig inom db.pool.connectionTimeoutMillis
      */
     public Connection getConnection() throws SQLException {
+        return getDataSource().getConnection();
+    }
+
+    public DataSource getDataSource() {
+        HikariDataSource ds = dataSource;
+        if (ds == null) {
+            ds = createPool();
+        }
+        return ds;
+    }
+
+    private synchronized HikariDataSource createPool() {
+        if (dataSource != null) {
+            return dataSource;
+        }
+        HikariConfig config = new HikariConfig();
         String url = properties.getProperty("db.url");
-        String username = properties.getProperty("db.username");
-        String password = properties.getProperty("db.password");
-        return DriverManager.getConnection(url, username, password);
+        config.setPoolName("chat-db");
+        config.setJdbcUrl(url);
+        config.setUsername(properties.getProperty("db.username"));
+        config.setPassword(properties.getProperty("db.password"));
+        config.setMaximumPoolSize(intProperty("db.pool.maxSize", 10));
+        config.setMinimumIdle(intProperty("db.pool.minIdle", 2));
+        // lediga anslutningar över minIdle stängs efter idleTimeout
+        config.setIdleTimeout(intProperty("db.pool.idleTimeoutMillis", 600_000));
+        // så länge en DAO väntar på en ledig anslutning innan SQLException
+        config.setConnectionTimeout(intProperty("db.pool.connectionTimeoutMillis", 5_000));
+        // byts ut innan MySQL:s wait_timeout hinner stänga dem
+        config.setMaxLifetime(intProperty("db.pool.maxLifetimeMillis", 1_800_000));
+        // JDBC4 isValid() används för validering, ingen testfråga behövs
+        config.setValidationTimeout(intProperty("db.pool.validationTimeoutMillis", 2_000));
+        config.setLeakDetectionThreshold(intProperty("db.pool.leakDetectionMillis", 0));
+        config.setMetricsTrackerFactory(metrics);
+        if (url != null && url.startsWith("jdbc:mysql:")) {
+            // färdiga statements cachas per anslutning, batchar skrivs som en INSERT med flera rader
+            config.addDataSourceProperty("cachePrepStmts", "true");
+            config.addDataSourceProperty("prepStmtCacheSize", "250");
+            config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+            config.addDataSourceProperty("rewriteBatchedStatements", "true");
+            // fetch size gäller bara med cursor, annars läses hela resultatet in i minnet
+            config.addDataSourceProperty("useCursorFetch", "true");
+        }
+        dataSource = new HikariDataSource(config);
+        return dataSource;
+    }
+
+    // -Dnyckel=värde går före properties-filen, precis som i ServerConfig
+    private int intProperty(String key, int defaultValue) {
+        String value = System.getProperty(key, properties.getProperty(key));
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("❌ " + key + " måste vara ett heltal, inte '" + value + "'");
+        }
+    }
+
+    // max antal anslutningar i poolen (db.pool.maxSize), t.ex för att dimensionera DAO-trådarna
+    public int getMaxPoolSize() {
+        return intProperty("db.pool.maxSize", 10);
+    }
+
+    public PoolMetrics getMetrics() {
+        return metrics;
+    }
 
+    /**
+     * stänger poolen och alla anslutningar i den, t.ex när servern stängs
+     */
+    public synchronized void close() {
+        if (dataSource != null) {
+            dataSource.close();
+            dataSource = null;
+        }
     }
 
     /**
@@ -81,12 +166,13 @@ public class DatabaseUtil {
             }
         }
     }
-        /**
-         * gör det möjligt att overrida properties
-         */
-       public void loadPropertiesFromStream(InputStream input) throws IOException{
-           properties.load(input);
 
-        }
+    /**
+     * gör det möjligt att overrida properties.
+     * en pool som redan finns stängs, nästa getConnection() skapar en ny med de nya värdena
+     */
+    public synchronized void loadPropertiesFromStream(InputStream input) throws IOException {
+        properties.load(input);
+        close();
     }
-
+}
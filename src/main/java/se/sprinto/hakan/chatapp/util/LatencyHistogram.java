@@ -0,0 +1,87 @@
+package se.sprinto.hakan.chatapp.util;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Enkel latens-histogram utan lås, för statistik i konsolen.
+ * Värdena läggs i hinkar som dubblas i storlek (under 1µs, 2µs, 4µs ... ),
+ * så percentiler blir ungefärliga (inom en faktor 2) men record() är billig
+ * nog att anropas från många trådar samtidigt.
+ */
+public class LatencyHistogram {
+
+    // hink i håller värden under 2^i mikrosekunder, sista hinken tar resten
+    private static final int BUCKETS = 40;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void recordMillis(long millis) {
+        recordMicros(TimeUnit.MILLISECONDS.toMicros(millis));
+    }
+
+    public void recordMicros(long micros) {
+        long value = Math.max(0, micros);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+        buckets[bucket].increment();
+        count.increment();
+        totalMicros.add(value);
+        maxMicros.accumulate(value);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * övre gränsen för hinken där percentilen hamnar
+     * @param percentile t.ex 0.99
+     */
+    public long percentileMicros(double percentile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long wanted = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i].sum();
+            if (seen >= wanted) {
+                return Math.min(1L << i, maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    // t.ex "n=120 medel=0.4ms p50=0.3ms p99=2.0ms max=3.1ms"
+    public String summary() {
+        long n = count();
+        if (n == 0) {
+            return "n=0";
+        }
+        return "n=" + n
+                + " medel=" + millis(totalMicros.sum() / n)
+                + " p50=" + millis(percentileMicros(0.50))
+                + " p99=" + millis(percentileMicros(0.99))
+                + " max=" + millis(maxMicros.get());
+    }
+
+    private static String millis(long micros) {
+        return String.format(Locale.ROOT, "%.1fms", micros / 1000.0);
+    }
+}
@@ -10,14 +10,21 @@ import org.mindrot.jbcrypt.BCrypt;
  */
 
 public class PasswordUtil {
+
+    // samma som BCrypt.gensalt() utan argument
+    public static final int DEFAULT_COST = 10;
+
+    // sätts av servern efter calibrate(), varje steg dubblar tiden det tar
+    private static volatile int cost = DEFAULT_COST;
+
     /**
-     * Hashar lösenordet med BCrypt.gensalt()
+     * Hashar lösenordet med BCrypt.gensalt(cost)
      * generarar automatiskt et unikt salt för varje hash
      * @param password lösenord som användaren vill hasha
      * @return en säker hash sparas i databasen istället för klartext
      */
     public static String hashPassword(String password) {
-        return BCrypt.hashpw(password, BCrypt.gensalt());
+        return BCrypt.hashpw(password, BCrypt.gensalt(cost));
 
     }
 
@@ -31,4 +38,54 @@ public class PasswordUtil {
     public static boolean verifyPassword(String password, String hashedPassword) {
         return BCrypt.checkpw(password, hashedPassword);
     }
+
+    public static int getCost() {
+        return cost;
+    }
+
+    public static void setCost(int newCost) {
+        if (newCost < 4 || newCost > 31) {
+            throw new IllegalArgumentException("❌ BCrypt cost måste vara 4-31, inte " + newCost);
+        }
+        cost = newCost;
+    }
+
+    /**
+     * cost som hashen gjordes med, t.ex 10 för "$2a$10$..."
+     */
+    public static int costOf(String hashedPassword) {
+        return Integer.parseInt(hashedPassword.substring(4, 6));
+    }
+
+    // hashen gjordes med en annan cost än den vi använder nu
+    public static boolean needsRehash(String hashedPassword) {
+        return costOf(hashedPassword) != cost;
+    }
+
+    /**
+     * Mäter hur lång tid BCrypt tar på den här datorn och väljer högsta cost
+     * där en hash tar högst targetMillis. Blir det aldrig så snabbt används minCost ändå.
+     * Ändrar inte cost, det får den som anropar göra med setCost().
+     */
+    public static int calibrate(long targetMillis, int minCost, int maxCost) {
+        // låt JIT:en värma upp först, annars blir första mätningen för hög
+        for (int i = 0; i < 5; i++) {
+            BCrypt.hashpw("kalibrering", BCrypt.gensalt(4));
+        }
+        int chosen = minCost;
+        for (int c = minCost; c <= maxCost; c++) {
+            long start = System.nanoTime();
+            BCrypt.hashpw("kalibrering", BCrypt.gensalt(c));
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            if (millis > targetMillis) {
+                break;
+            }
+            chosen = c;
+            // nästa steg tar dubbelt så lång tid, ingen idé att mäta det
+            if (millis * 2 > targetMillis) {
+                break;
+            }
+        }
+        return chosen;
+    }
 }
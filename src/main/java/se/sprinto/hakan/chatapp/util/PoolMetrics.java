@@ -0,0 +1,71 @@
+package se.sprinto.hakan.chatapp.util;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistik för connection-poolen, HikariCP anropar den vid varje lån.
+ * wait = hur länge en DAO väntade på en ledig anslutning,
+ * usage = hur länge anslutningen var utlånad.
+ */
+public class PoolMetrics implements MetricsTrackerFactory {
+
+    private final LatencyHistogram wait = new LatencyHistogram();
+    private final LatencyHistogram usage = new LatencyHistogram();
+    private final LatencyHistogram created = new LatencyHistogram();
+    private final LongAdder timeouts = new LongAdder();
+    private volatile PoolStats stats;
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.stats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long millis) {
+                created.recordMillis(millis);
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long nanos) {
+                wait.recordNanos(nanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long millis) {
+                usage.recordMillis(millis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    public LatencyHistogram waitTimes() {
+        return wait;
+    }
+
+    public LatencyHistogram usageTimes() {
+        return usage;
+    }
+
+    public long timeouts() {
+        return timeouts.sum();
+    }
+
+    public String summary() {
+        PoolStats s = stats;
+        String pool = s == null ? "ej startad"
+                : s.getActiveConnections() + " aktiva, " + s.getIdleConnections() + " lediga, "
+                + s.getPendingThreads() + " väntar";
+        return "🗄️ Pool: " + pool
+                + " | väntan " + wait.summary()
+                + " | utlånad " + usage.summary()
+                + " | nya " + created.count()
+                + " | timeouts " + timeouts.sum();
+    }
+}
@@ -0,0 +1,195 @@
+package se.sprinto.hakan.chatapp.util;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Skapar och uppdaterar databasens tabeller och index när servern startar.
+ * Varje migrering har ett versionsnummer och körs en gång, vilka som är
+ * körda sparas i tabellen schema_version.
+ *
+ * Migreringarna kollar själva om tabellen/kolumnen/indexet redan finns
+ * (via DatabaseMetaData) istället för IF NOT EXISTS, eftersom MySQL inte har
+ * det för index och kolumner. Då fungerar de både mot H2 och MySQL, och mot
+ * en gammal databas som skapades för hand innan schema_version fanns.
+ *
+ * Nya ändringar läggs till SIST i MIGRATIONS med nästa nummer, gamla ändras aldrig.
+ */
+public class SchemaManager {
+
+    @FunctionalInterface
+    private interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private record Migration(int version, String description, Step step) {
+    }
+
+    // index som DAO:erna räknar med, se SchemaIndexTest
+    public static final String MESSAGES_USER_INDEX = "idx_messages_user_time";
+    public static final String MESSAGES_ROOM_INDEX = "idx_messages_room_time";
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "users och messages", conn -> {
+                createTableIfMissing(conn, "users", """
+                        CREATE TABLE users (
+                            id INT PRIMARY KEY AUTO_INCREMENT,
+                            username VARCHAR(60) UNIQUE NOT NULL,
+                            password VARCHAR(60) NOT NULL)
+                        """);
+                createTableIfMissing(conn, "messages", """
+                        CREATE TABLE messages (
+                            id INT PRIMARY KEY AUTO_INCREMENT,
+                            user_id INT NOT NULL,
+                            message TEXT NOT NULL,
+                            timestamp TIMESTAMP NOT NULL,
+                            FOREIGN KEY (user_id) REFERENCES users(id))
+                        """);
+            }),
+            new Migration(2, "rum för meddelanden", conn ->
+                    addColumnIfMissing(conn, "messages", "room",
+                            "ALTER TABLE messages ADD COLUMN room VARCHAR(32) NOT NULL DEFAULT 'lobby'")),
+            // /mymsgs, /more och strömmad historik: WHERE user_id = ? ORDER BY timestamp, id
+            // rummets historik: WHERE room = ? ORDER BY timestamp DESC, id DESC
+            // (MySQL slänger själv sitt automatiska index för främmande nyckeln när user-indexet finns)
+            new Migration(3, "index för historik", conn -> {
+                createIndexIfMissing(conn, "messages", MESSAGES_USER_INDEX, "user_id, timestamp, id");
+                createIndexIfMissing(conn, "messages", MESSAGES_ROOM_INDEX, "room, timestamp, id");
+            }),
+            // MySQL sparar TIMESTAMP i hela sekunder (och avrundar), H2 med mikrosekunder.
+            // keyset-frågorna kräver att tiden i minnet är samma som den i databasen
+            new Migration(4, "tidsstämplar med mikrosekunder", conn ->
+                    widenTimestampIfNeeded(conn, "messages", "timestamp", 6))
+    );
+
+    private SchemaManager() {
+    }
+
+    /**
+     * kör alla migreringar som inte körts än
+     * @return antal migreringar som kördes
+     */
+    public static int migrate() {
+        try (Connection conn = DatabaseUtil.getInstance().getConnection()) {
+            createTableIfMissing(conn, "schema_version", """
+                    CREATE TABLE schema_version (
+                        version INT PRIMARY KEY,
+                        description VARCHAR(200) NOT NULL,
+                        installed_at TIMESTAMP NOT NULL)
+                    """);
+            int current = currentVersion(conn);
+            int applied = 0;
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version() <= current) {
+                    continue;
+                }
+                migration.step().apply(conn);
+                markApplied(conn, migration);
+                System.out.println("🗄️ Databasen uppdaterad till version " + migration.version()
+                        + " (" + migration.description() + ")");
+                applied++;
+            }
+            return applied;
+        } catch (SQLException e) {
+            throw new RuntimeException("❌ Kunde inte uppdatera databasens schema: " + e.getMessage(), e);
+        }
+    }
+
+    // högsta versionen i MIGRATIONS, dvs den som koden förväntar sig
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version();
+    }
+
+    private static int currentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static void markApplied(Connection conn, Migration migration) throws SQLException {
+        String sql = "INSERT INTO schema_version (version, description, installed_at) VALUES (?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, migration.version());
+            stmt.setString(2, migration.description());
+            stmt.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
+            stmt.executeUpdate();
+        }
+    }
+
+    private static void createTableIfMissing(Connection conn, String table, String ddl) throws SQLException {
+        if (!tableExists(conn.getMetaData(), table)) {
+            execute(conn, ddl);
+        }
+    }
+
+    private static void addColumnIfMissing(Connection conn, String table, String column, String ddl)
+            throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        try (ResultSet rs = meta.getColumns(conn.getCatalog(), conn.getSchema(),
+                identifier(meta, table), identifier(meta, column))) {
+            if (rs.next()) {
+                return;
+            }
+        }
+        execute(conn, ddl);
+    }
+
+    private static void widenTimestampIfNeeded(Connection conn, String table, String column, int digits)
+            throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        try (ResultSet rs = meta.getColumns(conn.getCatalog(), conn.getSchema(),
+                identifier(meta, table), identifier(meta, column))) {
+            if (!rs.next() || rs.getInt("DECIMAL_DIGITS") >= digits) {
+                return;
+            }
+        }
+        String type = "TIMESTAMP(" + digits + ")";
+        if (meta.getDatabaseProductName().toLowerCase(Locale.ROOT).contains("mysql")) {
+            execute(conn, "ALTER TABLE " + table + " MODIFY " + column + " " + type + " NOT NULL");
+        } else {
+            execute(conn, "ALTER TABLE " + table + " ALTER COLUMN " + column + " SET DATA TYPE " + type);
+        }
+    }
+
+    private static void createIndexIfMissing(Connection conn, String table, String index, String columns)
+            throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        try (ResultSet rs = meta.getIndexInfo(conn.getCatalog(), conn.getSchema(),
+                identifier(meta, table), false, true)) {
+            while (rs.next()) {
+                if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    return;
+                }
+            }
+        }
+        execute(conn, "CREATE INDEX " + index + " ON " + table + " (" + columns + ")");
+    }
+
+    private static boolean tableExists(DatabaseMetaData meta, String table) throws SQLException {
+        // bara vårt eget schema, H2 har t.ex en USERS-tabell i INFORMATION_SCHEMA
+        Connection conn = meta.getConnection();
+        try (ResultSet rs = meta.getTables(conn.getCatalog(), conn.getSchema(), identifier(meta, table), null)) {
+            return rs.next();
+        }
+    }
+
+    // H2 sparar namn med versaler, MySQL som de skrevs (alla namn här är gemener)
+    private static String identifier(DatabaseMetaData meta, String name) throws SQLException {
+        return meta.storesUpperCaseIdentifiers() ? name.toUpperCase(Locale.ROOT) : name;
+    }
+
+    private static void execute(Connection conn, String ddl) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(ddl);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package se.sprinto.hakan.chatapp.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Singleton class för serverns inställningar.
+ * läser server.properties från classpath, men en system property
+ * med samma nyckel (t.ex -Dserver.mode=nio) går alltid före filen.
+ * saknas nyckeln helt används standardvärdet som skickas in.
+ */
+
+public class ServerConfig {
+    private final Properties properties = new Properties();
+
+    private ServerConfig() {
+        String serverProp = "/server.properties";
+        try (InputStream stream = getClass().getResourceAsStream(serverProp)) {
+            if (stream != null) {
+                properties.load(stream);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("❌ Kunde inte läsa " + serverProp, e);
+        }
+    }
+
+    // samma holder-mönster som DatabaseUtil, inget lås vid varje anrop
+    private static class Holder {
+        private static final ServerConfig INSTANCE = new ServerConfig();
+    }
+
+    // returnerar den ENDA instansen av serverconfig
+    public static ServerConfig getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = System.getProperty(key, properties.getProperty(key));
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("❌ " + key + " måste vara ett heltal, fick: " + value);
+        }
+    }
+
+    /**
+     * läser ett enum-värde, skiftläget spelar ingen roll (nio, NIO, Nio)
+     */
+    public <E extends Enum<E>> E getEnum(String key, E defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(), value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("❌ Okänt värde för " + key + ": " + value);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package se.sprinto.hakan.chatapp.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * hjälpmetoder för trådar och executors.
+ * projektet kompileras för Java 17, därför hämtas virtuella trådar (Java 21+)
+ * med reflection istället för att anropa API:t direkt.
+ */
+
+public class ThreadUtil {
+
+    private ThreadUtil() {
+    }
+
+    /**
+     * en ThreadFactory som ger daemon-trådar med namnen prefix-1, prefix-2 ...
+     */
+    public static ThreadFactory namedFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * en executor med exakt threads trådar och en kö som rymmer queueCapacity uppgifter.
+     * är kön full kastar execute() RejectedExecutionException direkt istället för att vänta,
+     * så den som skickar in kan svara "upptaget" på en gång
+     */
+    public static ThreadPoolExecutor boundedExecutor(String prefix, int threads, int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), namedFactory(prefix), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() om JVM:en har det
+     * @return executorn, eller null på Java 20 och äldre
+     */
+    public static ExecutorService virtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("❌ Kunde inte skapa virtuella trådar", e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package se.sprinto.hakan.chatapp.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket utan lås: capacity tokens som fylls på med perSecond per sekund.
+ *
+ * Istället för att räkna tokens sparas bara en tidpunkt (GCRA): när bucketen
+ * skulle vara full igen om inget mer tas. Ett tryAcquire() flyttar fram den
+ * med tiden för en token, och nekas om den då hamnar mer än capacity tokens fram
+ * i tiden. En enda AtomicLong och en CAS, ingen tråd som fyller på.
+ */
+public class TokenBucket {
+
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong fullAt;
+
+    public TokenBucket(int capacity, double perSecond) {
+        if (capacity <= 0 || perSecond <= 0) {
+            throw new IllegalArgumentException("❌ TokenBucket behöver capacity > 0 och perSecond > 0");
+        }
+        this.nanosPerToken = Math.max(1, (long) (1_000_000_000L / perSecond));
+        this.burstNanos = nanosPerToken * capacity;
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @return true om det fanns en token, false om gränsen är nådd
+     */
+    public boolean tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            // har den hunnit fyllas räknas från nu, annars från där den är
+            long next = (current - now > 0 ? current : now) + nanosPerToken;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    // inga tokens använda just nu, då behöver bucketen inte sparas
+    public boolean isFull() {
+        return fullAt.get() - System.nanoTime() <= 0;
+    }
+}
@@ -0,0 +1,63 @@
+package se.sprinto.hakan.chatapp;
+
+import org.junit.jupiter.api.Test;
+import se.sprinto.hakan.chatapp.util.TokenBucket;
+
+import java.net.InetAddress;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * testar gränserna för anslutningar och att inloggningsförsök räknas per IP
+ */
+public class AdmissionControlTest {
+
+    @Test
+    void connectionLimitsPerIpAndTotal() throws Exception {
+        InetAddress a = InetAddress.getByName("10.0.0.1");
+        InetAddress b = InetAddress.getByName("10.0.0.2");
+        InetAddress c = InetAddress.getByName("10.0.0.3");
+        AdmissionControl admission = new AdmissionControl(3, 2, 0, 0, 0, 0);
+
+        assertTrue(admission.admit(a));
+        assertTrue(admission.admit(a));
+        assertFalse(admission.admit(a), "max 2 från samma IP");
+        assertTrue(admission.admit(b));
+        assertFalse(admission.admit(c), "max 3 totalt");
+        assertEquals(3, admission.connections());
+
+        admission.release(a);
+        assertTrue(admission.admit(c));
+        assertEquals(2, admission.rejected());
+        assertNull(admission.newMessageBucket());
+    }
+
+    @Test
+    void authAttemptsSurviveReconnect() throws Exception {
+        InetAddress a = InetAddress.getByName("10.0.0.1");
+        AdmissionControl admission = new AdmissionControl(0, 0, 3, 1, 0, 0);
+
+        admission.admit(a);
+        assertTrue(admission.tryAuth(a));
+        assertTrue(admission.tryAuth(a));
+        admission.release(a);
+
+        // samma IP igen, försöken är inte tillbaka bara för att den anslöt på nytt
+        admission.admit(a);
+        assertTrue(admission.tryAuth(a));
+        assertFalse(admission.tryAuth(a));
+        assertEquals(1, admission.throttledAuth());
+    }
+
+    @Test
+    void tokenBucketAllowsBurstThenRefills() throws Exception {
+        TokenBucket bucket = new TokenBucket(3, 100);
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        assertFalse(bucket.isFull());
+        Thread.sleep(50);
+        assertTrue(bucket.tryAcquire(), "100 per sekund, 50 ms räcker för flera");
+    }
+}
@@ -0,0 +1,97 @@
+package se.sprinto.hakan.chatapp;
+
+import org.junit.jupiter.api.Test;
+import se.sprinto.hakan.chatapp.dao.AsyncUserDAO;
+import se.sprinto.hakan.chatapp.dao.UserListDAO;
+import se.sprinto.hakan.chatapp.model.User;
+import se.sprinto.hakan.chatapp.util.PasswordUtil;
+import se.sprinto.hakan.chatapp.util.ThreadUtil;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * testar att BCrypt körs på auth-trådarna, mäts, att en full kö nekas direkt
+ * och att gamla hashar byts till den kalibrerade costen
+ */
+public class AuthenticatorTest {
+
+    @Test
+    void registerAndLoginHashOnAuthThreads() throws Exception {
+        ThreadPoolExecutor daoExecutor = ThreadUtil.boundedExecutor("test-dao", 1, 10);
+        UserListDAO users = new UserListDAO();
+        Authenticator auth = new Authenticator(new AsyncUserDAO(users, daoExecutor), 1, 10);
+
+        User registered = auth.register("hakan", "hemligt").get(10, TimeUnit.SECONDS);
+        assertNotNull(registered);
+        assertTrue(registered.getPassword().startsWith("$2"), "bara hashen ska sparas");
+        assertNull(auth.register("Hakan", "annat").get(10, TimeUnit.SECONDS));
+
+        assertNotNull(auth.login("hakan", "hemligt").get(10, TimeUnit.SECONDS));
+        assertNull(auth.login("hakan", "fel").get(10, TimeUnit.SECONDS));
+        // okänt namn behöver ingen BCrypt
+        assertNull(auth.login("ingen", "fel").get(10, TimeUnit.SECONDS));
+
+        assertEquals(4, auth.compute().count());
+        assertEquals(4, auth.queueWait().count());
+        auth.shutdown();
+        daoExecutor.shutdown();
+    }
+
+    @Test
+    void fullQueueIsRejectedWithoutWaiting() {
+        ThreadPoolExecutor daoExecutor = ThreadUtil.boundedExecutor("test-dao", 1, 10);
+        Authenticator auth = new Authenticator(new AsyncUserDAO(new UserListDAO(), daoExecutor), 1, 1);
+
+        // en hash körs, en väntar i kön, den tredje får inte plats
+        CompletableFuture<User> first = auth.register("a", "123");
+        CompletableFuture<User> second = auth.register("b", "123");
+        CompletableFuture<User> third = auth.register("c", "123");
+
+        assertTrue(third.isCompletedExceptionally());
+        ExecutionException e = assertThrows(ExecutionException.class, third::get);
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        assertEquals(1, auth.rejected());
+        assertNotNull(first.join());
+        assertNotNull(second.join());
+        auth.shutdown();
+        daoExecutor.shutdown();
+    }
+
+    @Test
+    void loginRehashesWhenCostChanged() throws Exception {
+        int previous = PasswordUtil.getCost();
+        ThreadPoolExecutor daoExecutor = ThreadUtil.boundedExecutor("test-dao", 1, 10);
+        UserListDAO users = new UserListDAO();
+        Authenticator auth = new Authenticator(new AsyncUserDAO(users, daoExecutor), 1, 10);
+        try {
+            PasswordUtil.setCost(4);
+            auth.register("hakan", "hemligt").get(10, TimeUnit.SECONDS);
+            assertEquals(4, PasswordUtil.costOf(users.findByUsername("hakan").getPassword()));
+
+            PasswordUtil.setCost(5);
+            assertNotNull(auth.login("hakan", "hemligt").get(10, TimeUnit.SECONDS));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (auth.rehashed() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            String rehashed = users.findByUsername("hakan").getPassword();
+            assertEquals(5, PasswordUtil.costOf(rehashed));
+            assertTrue(PasswordUtil.verifyPassword("hemligt", rehashed));
+
+            // en hash som hunnit bytas skrivs inte över
+            assertFalse(users.replacePasswordHash("hakan", "$2a$04$gammal", "ny"));
+            assertEquals(4, PasswordUtil.calibrate(0, 4, 6), "för långsamt, minCost ändå");
+            assertEquals(6, PasswordUtil.calibrate(60_000, 4, 6));
+        } finally {
+            PasswordUtil.setCost(previous);
+            auth.shutdown();
+            daoExecutor.shutdown();
+        }
+    }
+}
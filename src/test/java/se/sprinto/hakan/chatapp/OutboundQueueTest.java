@@ -0,0 +1,69 @@
+package se.sprinto.hakan.chatapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * testar att en full utgående kö beter sig enligt sin OverflowPolicy
+ */
+public class OutboundQueueTest {
+
+    private static ByteBuffer line(String text) {
+        return ByteBuffer.wrap((text + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(ByteBuffer frame) {
+        return StandardCharsets.UTF_8.decode(frame.duplicate()).toString();
+    }
+
+    @Test
+    void dropOldestKeepsTheNewestLines() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST, 1024);
+
+        assertTrue(queue.offer(line("ett")));
+        assertTrue(queue.offer(line("två")));
+        assertTrue(queue.offer(line("tre")));
+
+        assertEquals(2, queue.depth(), "kön ska aldrig bli större än kapaciteten");
+        assertEquals(1, queue.dropped(), "en rad ska ha tappats");
+        assertEquals("två\n", text(queue.poll()));
+        assertEquals("tre\n", text(queue.poll()));
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void disconnectRejectsWhenFull() {
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.DISCONNECT, 1024);
+
+        assertTrue(queue.offer(line("ett")));
+        assertFalse(queue.offer(line("två")), "full kö ska betyda att klienten kopplas bort");
+        assertEquals(1, queue.depth());
+    }
+
+    @Test
+    void coalesceMergesIntoTheLastLine() {
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.COALESCE, 1024);
+
+        assertTrue(queue.offer(line("ett")));
+        assertTrue(queue.offer(line("två")));
+
+        assertEquals(1, queue.depth());
+        assertEquals(1, queue.coalesced());
+        assertEquals("ett\ntvå\n", text(queue.poll()), "inget ska tappas, raderna skickas i en skrivning");
+    }
+
+    @Test
+    void takeReturnsNullWhenClosedAndDrained() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(4, OverflowPolicy.DROP_OLDEST, 1024);
+        queue.offer(line("hejdå"));
+        queue.close();
+
+        assertEquals("hejdå\n", text(queue.take()), "det som redan låg i kön ska fortfarande skickas");
+        assertNull(queue.take());
+        assertEquals(1, queue.highWaterMark());
+    }
+}
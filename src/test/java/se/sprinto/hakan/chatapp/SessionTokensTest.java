@@ -0,0 +1,58 @@
+package se.sprinto.hakan.chatapp;
+
+import org.junit.jupiter.api.Test;
+import se.sprinto.hakan.chatapp.model.User;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * testar att en nyckel går att använda en gång och slutar gälla ttl efter att anslutningen bröts
+ */
+public class SessionTokensTest {
+
+    @Test
+    void tokenResumesOnceWithUserAndRoom() {
+        SessionTokens tokens = new SessionTokens(30, TimeUnit.MINUTES);
+        User hakan = new User(1, "hakan", "hash");
+        SessionTokens.Session session = tokens.issue(hakan, "lobby");
+        session.setRoom("kod");
+        assertNotEquals(session.token(), tokens.issue(hakan, "lobby").token());
+
+        tokens.release(session);
+        SessionTokens.Session resumed = tokens.resume(session.token());
+        assertSame(hakan, resumed.user());
+        assertEquals("kod", resumed.room());
+        assertNull(tokens.resume(session.token()), "samma nyckel ska inte gå att använda igen");
+        assertNull(tokens.resume("påhittad"));
+    }
+
+    @Test
+    void restoredTokenCanBeResumedAgain() {
+        SessionTokens tokens = new SessionTokens(30, TimeUnit.MINUTES);
+        SessionTokens.Session session = tokens.issue(new User(1, "hakan", "hash"), "lobby");
+
+        // inloggningen nekades, den gamla anslutningen var kvar
+        tokens.restore(tokens.resume(session.token()));
+        assertSame(session, tokens.resume(session.token()));
+    }
+
+    @Test
+    void tokenExpiresOnlyAfterDisconnect() throws Exception {
+        SessionTokens tokens = new SessionTokens(1, TimeUnit.MILLISECONDS);
+        User hakan = new User(1, "hakan", "hash");
+        SessionTokens.Session connected = tokens.issue(hakan, "lobby");
+        SessionTokens.Session gone = tokens.issue(hakan, "lobby");
+        SessionTokens.Session quit = tokens.issue(hakan, "lobby");
+        tokens.release(gone);
+        tokens.revoke(quit);
+        Thread.sleep(20);
+
+        tokens.purgeExpired();
+        assertEquals(1, tokens.size());
+        assertNull(tokens.resume(gone.token()));
+        assertNull(tokens.resume(quit.token()));
+        assertNotNull(tokens.resume(connected.token()), "ansluten klient ska aldrig gå ut");
+    }
+}
@@ -7,10 +7,12 @@ import se.sprinto.hakan.chatapp.dao.MessageDatabaseDAO;
 import se.sprinto.hakan.chatapp.dao.UserDatabaseDAO;
 import se.sprinto.hakan.chatapp.model.Message;
 import se.sprinto.hakan.chatapp.util.DatabaseUtil;
+import se.sprinto.hakan.chatapp.util.SchemaManager;
 
 import java.io.InputStream;
 import java.sql.*;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -51,28 +53,13 @@ public class UserMessageDAOTest {
             //raderar eventuellt gammal tabell
             stmt.executeUpdate("DROP TABLE IF EXISTS messages");
             stmt.executeUpdate("DROP TABLE IF EXISTS users");
-
-            //skapa user tabelen
-            stmt.execute("CREATE TABLE users (" +
-                    "id INT PRIMARY KEY AUTO_INCREMENT, " +
-                    "username VARCHAR(60) UNIQUE NOT NULL," +
-                    "password VARCHAR(60) NOT NULL)");
-
-            System.out.println("users tabell skapad i H2;P!");
-
-            //skapa message tabellen
-            stmt.execute("CREATE TABLE messages (" +
-                    "id INT PRIMARY KEY AUTO_INCREMENT, " +
-                    "user_id INT NOT NULL, " +
-                    "message TEXT NOT NULL, " +
-                    "timestamp TIMESTAMP NOT NULL, " +
-                    "FOREIGN KEY (user_id) REFERENCES users(id))");
-
-            System.out.println("Messages tabell skapad i H2;P!");
-
-            System.out.println("Test databasen H2 fixat och REDO!");
-
+            stmt.executeUpdate("DROP TABLE IF EXISTS schema_version");
         }
+        // samma tabeller och index som servern skapar vid start
+        SchemaManager.migrate();
+        System.out.println("users och messages tabeller skapade i H2;P!");
+
+        System.out.println("Test databasen H2 fixat och REDO!");
     }
 
 /**
@@ -136,6 +123,58 @@ void testUserAndMessageIntegration() {
     assertEquals(userId,fetchedMessage1.getUserId(), "Första medd userID ska stämma");
     assertEquals((userId),fetchedMessage2.getUserId(),"Andra medd userID ska stämma");
 
+    // meddelanden utan rum hamnar i lobbyn
+    assertEquals(Message.DEFAULT_ROOM, fetchedMessage1.getRoom(), "rummet ska vara lobby");
+    messageDAO.saveMessage(new Message(userId, "kod", "Ett meddelande i #kod", LocalDateTime.now()));
+    List<Message> lobby = messageDAO.getRecentMessagesByRoom(Message.DEFAULT_ROOM, 10);
+    assertEquals(2, lobby.size(), "bara lobbyns meddelanden ska hämtas");
+    List<Message> kod = messageDAO.getRecentMessagesByRoom("kod", 10);
+    assertEquals(1, kod.size());
+    assertEquals("Ett meddelande i #kod", kod.get(0).getText());
+
+    // batch-sparande ska ge meddelandena sina id:n
+    List<Message> batch = List.of(
+            new Message(userId, "kod", "batch ett", LocalDateTime.now()),
+            new Message(userId, "kod", "batch två", LocalDateTime.now()));
+    messageDAO.saveMessages(batch);
+    assertTrue(batch.get(0).getId() > 0 && batch.get(1).getId() > batch.get(0).getId(), "id:n ska vara satta i ordning");
+    assertEquals(3, messageDAO.getRecentMessagesByRoom("kod", 10).size());
+
+    // bläddra bakåt en sida i taget, äldst först inom sidan
+    List<Message> newest = messageDAO.getMessagesByUserId(userId, null, 2);
+    assertEquals(List.of("batch ett", "batch två"), newest.stream().map(Message::getText).toList());
+    List<Message> older = messageDAO.getMessagesByUserId(userId, newest.get(0), 2);
+    assertEquals("Ett meddelande i #kod", older.get(1).getText(), "nästa sida ska börja precis före förra");
+    assertEquals(5, messageDAO.getMessagesByUserId(userId, null, 100).size());
+
+    // strömmad historik ska ge samma meddelanden i samma ordning
+    List<Message> streamed = new ArrayList<>();
+    messageDAO.streamMessagesByUserId(userId, streamed::add);
+    assertEquals(messageDAO.getMessagesByUserId(userId, null, 100).stream().map(Message::getId).toList(),
+            streamed.stream().map(Message::getId).toList());
+
+    // login med historik: senaste sidan direkt, äldre via pagern
+    assertNull(userDAO.loginWithMessages("testuser3", "fel"), "fel lösenord ska inte ge någon historik");
+    User withMessages = userDAO.loginWithMessages("testuser3", "testpassword2", 2);
+    assertNotNull(withMessages);
+    assertEquals(newest.stream().map(Message::getId).toList(),
+            withMessages.getMessages().stream().map(Message::getId).toList());
+    assertEquals(older.stream().map(Message::getId).toList(),
+            withMessages.getMessages(withMessages.getMessages().get(0), 2).stream().map(Message::getId).toList());
+
+    // fler än en sida, alla med samma tid: sidorna ska fortsätta på id utan att tappa eller upprepa något
+    LocalDateTime same = LocalDateTime.now().plusDays(1);
+    List<Message> many = new ArrayList<>();
+    for (int i = 0; i < 600; i++) {
+        many.add(new Message(userId, "många " + i, same));
+    }
+    messageDAO.saveMessages(many);
+    List<Message> allStreamed = new ArrayList<>();
+    messageDAO.streamMessagesByUserId(userId, allStreamed::add);
+    assertEquals(messageDAO.getMessagesByUserId(userId).stream().map(Message::getId).toList(),
+            allStreamed.stream().map(Message::getId).toList());
+    assertEquals(605, allStreamed.size());
+
     System.out.println("Alla TESTER GOOOODKÄNDA WUHUHUHUHU!!!");
     System.out.println("VG-TEST KLART OCH EXTRA GODKÄÄÄÄNT ;D");
 
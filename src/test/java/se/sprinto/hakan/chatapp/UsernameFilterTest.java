@@ -0,0 +1,87 @@
+package se.sprinto.hakan.chatapp;
+
+import org.junit.jupiter.api.Test;
+import se.sprinto.hakan.chatapp.dao.AsyncUserDAO;
+import se.sprinto.hakan.chatapp.dao.UserListDAO;
+import se.sprinto.hakan.chatapp.model.User;
+import se.sprinto.hakan.chatapp.util.BloomFilter;
+import se.sprinto.hakan.chatapp.util.ThreadUtil;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * testar bloomfiltret och att ett upptaget namn nekas utan BCrypt
+ */
+public class UsernameFilterTest {
+
+    @Test
+    void bloomFilterHasNoFalseNegativesAndFewFalsePositives() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("user" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("user" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (filter.mightContain("other" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 300, "runt 1 % falsklarm, fick " + falsePositives);
+    }
+
+    @Test
+    void takenNamesAreRejectedBeforeHashing() throws Exception {
+        ThreadPoolExecutor daoExecutor = ThreadUtil.boundedExecutor("test-dao", 1, 10);
+        UserListDAO users = new UserListDAO();
+        users.register(new User("gammal", "123"));
+        UsernameFilter names = new UsernameFilter(1000, 0.01, 100);
+        users.forEachUsername(names::seed);
+        Authenticator auth = new Authenticator(new AsyncUserDAO(users, daoExecutor), 1, 10, names);
+        try {
+            assertEquals(UsernameFilter.Answer.FREE, names.check("ny"));
+            assertNotNull(auth.register("ny", "123").get(10, TimeUnit.SECONDS));
+            assertEquals(1, auth.compute().count());
+
+            // nyss registrerat: nekas direkt utan databas och utan BCrypt
+            assertNull(auth.register("NY", "456").get(10, TimeUnit.SECONDS));
+            assertEquals(1, names.taken());
+            // fanns vid start: databasen får bekräfta, fortfarande ingen BCrypt
+            assertNull(auth.register("gammal", "456").get(10, TimeUnit.SECONDS));
+            assertEquals(1, names.maybe());
+            assertEquals(1, auth.compute().count());
+            assertEquals(UsernameFilter.Answer.TAKEN, names.check("Gammal"));
+        } finally {
+            auth.shutdown();
+            daoExecutor.shutdown();
+        }
+    }
+
+    @Test
+    void databaseErrorDoesNotMarkTheNameTaken() throws Exception {
+        ThreadPoolExecutor daoExecutor = ThreadUtil.boundedExecutor("test-dao", 1, 10);
+        UserListDAO users = new UserListDAO() {
+            @Override
+            public User registerHashed(User user) {
+                throw new RuntimeException("❌ databasen är nere");
+            }
+        };
+        UsernameFilter names = new UsernameFilter(1000, 0.01, 100);
+        Authenticator auth = new Authenticator(new AsyncUserDAO(users, daoExecutor), 1, 10, names);
+        try {
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> auth.register("ny", "123").get(10, TimeUnit.SECONDS));
+            assertEquals("❌ databasen är nere", e.getCause().getMessage());
+            assertEquals(UsernameFilter.Answer.FREE, names.check("ny"), "namnet är inte taget");
+        } finally {
+            auth.shutdown();
+            daoExecutor.shutdown();
+        }
+    }
+}
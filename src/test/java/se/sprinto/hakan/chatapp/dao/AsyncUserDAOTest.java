@@ -0,0 +1,66 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import org.junit.jupiter.api.Test;
+import se.sprinto.hakan.chatapp.model.User;
+import se.sprinto.hakan.chatapp.util.ThreadUtil;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * testar att de asynkrona anropen körs på executorn och nekas direkt när den är full
+ */
+public class AsyncUserDAOTest {
+
+    @Test
+    void callsRunOnTheExecutor() throws Exception {
+        ThreadPoolExecutor executor = ThreadUtil.boundedExecutor("test-dao", 1, 10);
+        // tråden sparas i själva anropet, en thenApply kan köras i testets tråd om futuren redan är klar
+        String[] thread = new String[1];
+        UserListDAO users = new UserListDAO() {
+            @Override
+            public User findByUsername(String username) {
+                thread[0] = Thread.currentThread().getName();
+                return super.findByUsername(username);
+            }
+        };
+        users.register(new User("hakan", "123"));
+        AsyncUserDAO async = new AsyncUserDAO(users, executor);
+
+        assertNotNull(async.findByUsernameAsync("hakan").get(5, TimeUnit.SECONDS));
+        assertTrue(thread[0].startsWith("test-dao"));
+        assertNotNull(async.loginAsync("hakan", "123").get(5, TimeUnit.SECONDS));
+        assertNull(async.loginAsync("hakan", "fel").get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    void fullQueueFailsFast() throws Exception {
+        ThreadPoolExecutor executor = ThreadUtil.boundedExecutor("test-dao", 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        // en som kör och en som väntar i kön, sedan är det fullt
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(() -> {
+        });
+        AsyncUserDAO async = new AsyncUserDAO(new UserListDAO(), executor);
+
+        CompletableFuture<User> rejected = async.findByUsernameAsync("hakan");
+        assertTrue(rejected.isCompletedExceptionally());
+        ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        release.countDown();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,123 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import org.junit.jupiter.api.Test;
+import se.sprinto.hakan.chatapp.model.Message;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * testar att historikcachen svarar utan databasen när den kan, och frågar den när den måste
+ */
+public class CachingMessageDAOTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    // räknar läsningarna som når "databasen"
+    private static class CountingDAO extends MessageListDAO {
+        final AtomicInteger reads = new AtomicInteger();
+
+        @Override
+        public List<Message> getMessagesByUserId(int userId, Message before, int limit) {
+            reads.incrementAndGet();
+            return super.getMessagesByUserId(userId, before, limit);
+        }
+
+        @Override
+        public List<Message> getMessagesByUserId(int userId) {
+            reads.incrementAndGet();
+            return super.getMessagesByUserId(userId);
+        }
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+
+    @Test
+    void recentHistoryIsServedFromMemory() {
+        CountingDAO db = new CountingDAO();
+        db.saveMessage(new Message(1, "gammal", START));
+        CachingMessageDAO cache = new CachingMessageDAO(db, 10, 1000);
+
+        assertEquals(List.of("gammal"), texts(cache.getMessagesByUserId(1)));
+        assertEquals(1, db.reads.get(), "första läsningen fyller cachen");
+
+        cache.saveMessage(new Message(1, "ny", START.plusSeconds(1)));
+        assertEquals(List.of("gammal", "ny"), texts(cache.getMessagesByUserId(1)));
+        assertEquals(List.of("ny"), texts(cache.getMessagesByUserId(1, null, 1)));
+        assertEquals(1, db.reads.get(), "resten svaras från cachen");
+        assertEquals(2, db.getMessagesByUserId(1).size(), "sparades också i delegate");
+    }
+
+    @Test
+    void olderThanTheRingGoesToTheDelegate() {
+        CountingDAO db = new CountingDAO();
+        for (int i = 0; i < 10; i++) {
+            db.saveMessage(new Message(1, "rad " + i, START.plusSeconds(i)));
+        }
+        CachingMessageDAO cache = new CachingMessageDAO(db, 4, 1000);
+
+        List<Message> latest = cache.getMessagesByUserId(1, null, 3);
+        assertEquals(List.of("rad 7", "rad 8", "rad 9"), texts(latest));
+        int reads = db.reads.get();
+
+        List<Message> older = cache.getMessagesByUserId(1, latest.get(0), 3);
+        assertEquals(List.of("rad 4", "rad 5", "rad 6"), texts(older));
+        assertTrue(db.reads.get() > reads, "bara rad 6 fanns i ringen");
+        assertEquals(10, cache.getMessagesByUserId(1).size());
+    }
+
+    @Test
+    void inactiveUsersAreReleasedWhenOverBudget() {
+        CountingDAO db = new CountingDAO();
+        CachingMessageDAO cache = new CachingMessageDAO(db, 10, 20);
+        for (int user = 1; user <= 10; user++) {
+            cache.getMessagesByUserId(user, null, 5);
+            for (int i = 0; i < 3; i++) {
+                cache.saveMessage(new Message(user, "rad " + i, START.plusSeconds(i)));
+            }
+        }
+        assertTrue(cache.used() <= 20, "budgeten hålls: " + cache.used());
+        assertTrue(cache.evictedUsers() > 0);
+        // den senaste användaren är kvar, den första fylls på nytt från delegate
+        assertEquals(3, cache.getMessagesByUserId(10).size());
+        assertEquals(3, cache.getMessagesByUserId(1).size());
+    }
+
+    @Test
+    void onlySavedMessagesAreCachedBehindWriteBehind() {
+        CachingMessageDAO[] cache = new CachingMessageDAO[1];
+        boolean[] once = {true};
+        // första läsningen får ett svar där ett meddelande som sparas medan den pågår saknas
+        CountingDAO db = new CountingDAO() {
+            @Override
+            public List<Message> getMessagesByUserId(int userId, Message before, int limit) {
+                List<Message> stale = super.getMessagesByUserId(userId, before, limit);
+                if (once[0]) {
+                    once[0] = false;
+                    cache[0].saveMessage(new Message(1, "under läsningen", START.plusSeconds(1)));
+                }
+                return stale;
+            }
+        };
+        db.saveMessage(new Message(1, "gammal", START));
+        WriteBehindMessageDAO writer = new WriteBehindMessageDAO(db,
+                WriteBehindMessageDAO.Durability.SYNC, 100, 50, 10_000, 1000);
+        cache[0] = new CachingMessageDAO(writer, 10, 1000);
+        try {
+            // kom med via skrivtråden fast läsningen från delegate missade det
+            assertEquals(List.of("gammal", "under läsningen"), texts(cache[0].getMessagesByUserId(1, null, 5)));
+            int reads = db.reads.get();
+            List<Message> all = cache[0].getMessagesByUserId(1);
+            assertEquals(List.of("gammal", "under läsningen"), texts(all));
+            assertEquals(reads, db.reads.get(), "svaras från cachen");
+            assertTrue(all.stream().allMatch(m -> m.getId() > 0), "bara sparade meddelanden med id");
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import org.junit.jupiter.api.Test;
+import se.sprinto.hakan.chatapp.model.User;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * testar att cachen sparar uppslag men aldrig släpper in ett gammalt lösenord
+ */
+public class CachingUserDAOTest {
+
+    // räknar uppslagen som når "databasen"
+    private static class CountingDAO extends UserListDAO {
+        final AtomicInteger lookups = new AtomicInteger();
+
+        @Override
+        public User findByUsername(String username) {
+            lookups.incrementAndGet();
+            return super.findByUsername(username);
+        }
+    }
+
+    @Test
+    void repeatedLoginsAreServedFromCache() {
+        CountingDAO users = new CountingDAO();
+        users.register(new User("hakan", "gammalt"));
+        CachingUserDAO cache = new CachingUserDAO(users, 100, 1, TimeUnit.MINUTES);
+
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(cache.login("hakan", "gammalt"));
+        }
+        assertNull(cache.login("Hakan", "fel"), "fel lösenord nekas även från cachen");
+        assertEquals(1, users.lookups.get());
+        assertEquals(5, cache.hits());
+        assertEquals(1, cache.misses());
+
+        assertTrue(cache.changePassword("hakan", "nytt"));
+        assertNull(cache.login("hakan", "gammalt"), "det gamla lösenordet får inte ligga kvar");
+        assertNotNull(cache.login("hakan", "nytt"));
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() {
+        CountingDAO users = new CountingDAO();
+        for (String name : new String[]{"a", "b", "c"}) {
+            users.register(new User(name, "123"));
+        }
+        CachingUserDAO cache = new CachingUserDAO(users, 2, 1, TimeUnit.MINUTES);
+
+        cache.findByUsername("a");
+        cache.findByUsername("b");
+        cache.findByUsername("a");
+        cache.findByUsername("c");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+        int before = users.lookups.get();
+        cache.findByUsername("a");
+        assertEquals(before, users.lookups.get(), "a användes nyss och ska finnas kvar");
+        cache.findByUsername("b");
+        assertEquals(before + 1, users.lookups.get(), "b var äldst och ska ha kastats ut");
+    }
+}
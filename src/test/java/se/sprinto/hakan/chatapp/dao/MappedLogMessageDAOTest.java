@@ -0,0 +1,86 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.sprinto.hakan.chatapp.model.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * testar att loggen hittar tillbaka till sina meddelanden efter omstart
+ * och att en halvskriven post efter en krasch klipps bort
+ */
+public class MappedLogMessageDAOTest {
+
+    @TempDir
+    Path dir;
+
+    private MappedLogMessageDAO open(int segmentBytes) {
+        return new MappedLogMessageDAO(dir, segmentBytes, MappedLogMessageDAO.Fsync.NEVER, 0);
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+
+    @Test
+    void reopenRebuildsIndexAcrossSegments() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 12, 0, 0, 123_456_789);
+        MappedLogMessageDAO log = open(256);
+        for (int i = 0; i < 20; i++) {
+            log.saveMessage(new Message(i % 2 + 1, i % 2 == 0 ? "lobby" : "Kod", "rad " + i, start.plusSeconds(i)));
+        }
+        assertTrue(log.segmentCount() > 1, "små segment ska ha fyllts");
+        log.close();
+
+        MappedLogMessageDAO reopened = open(256);
+        List<Message> mine = reopened.getMessagesByUserId(1);
+        assertEquals(10, mine.size());
+        assertEquals("rad 0", mine.get(0).getText());
+        assertEquals(start.truncatedTo(Message.TIMESTAMP_PRECISION), mine.get(0).getTimestamp());
+
+        List<Message> page = reopened.getMessagesByUserId(1, mine.get(8), 3);
+        assertEquals(List.of("rad 10", "rad 12", "rad 14"), texts(page));
+        assertEquals(List.of("rad 17", "rad 19"), texts(reopened.getRecentMessagesByRoom("kod", 2)));
+
+        assertEquals(List.of("rad 0", "rad 19"), texts(reopened.getMessagesByIds(List.of(1, 20, 99))));
+
+        // id:n fortsätter där de slutade
+        Message next = new Message(1, "ny", start.plusHours(1));
+        reopened.saveMessage(next);
+        assertEquals(21, next.getId());
+        reopened.close();
+    }
+
+    @Test
+    void tornTailIsTruncated() throws Exception {
+        LocalDateTime now = LocalDateTime.now();
+        MappedLogMessageDAO log = open(4096);
+        log.saveMessage(new Message(1, "ett", now));
+        log.saveMessage(new Message(1, "två", now));
+        log.saveMessage(new Message(1, "tredje", now));
+        log.close();
+
+        // som om processen dog mitt i den sista posten
+        Path segment = dir.resolve("00000001" + MappedLogMessageDAO.SEGMENT_SUFFIX);
+        byte[] bytes = Files.readAllBytes(segment);
+        String content = new String(bytes, StandardCharsets.ISO_8859_1);
+        bytes[content.indexOf("tredje") + 2] = 'X';
+        Files.write(segment, bytes);
+
+        MappedLogMessageDAO recovered = open(4096);
+        assertEquals(List.of("ett", "två"), texts(recovered.getMessagesByUserId(1)));
+        recovered.saveMessage(new Message(1, "fyra", now));
+        recovered.close();
+
+        MappedLogMessageDAO again = open(4096);
+        assertEquals(List.of("ett", "två", "fyra"), texts(again.getMessagesByUserId(1)));
+        again.close();
+    }
+}
@@ -0,0 +1,78 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import org.junit.jupiter.api.Test;
+import se.sprinto.hakan.chatapp.model.Message;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * testar att listan i minnet tål många skrivare och glömmer de äldsta när den är full
+ */
+public class MessageListDAOTest {
+
+    @Test
+    void concurrentSavesGetUniqueIdsInOrder() throws Exception {
+        MessageListDAO dao = new MessageListDAO(10_000, 10_000);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            int userId = t % 4 + 1;
+            pool.execute(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    dao.saveMessage(new Message(userId, "rad " + i, LocalDateTime.now()));
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        Set<Integer> ids = new HashSet<>();
+        for (int userId = 1; userId <= 4; userId++) {
+            List<Message> mine = dao.getMessagesByUserId(userId);
+            assertEquals(2000, mine.size());
+            for (int i = 0; i < mine.size(); i++) {
+                assertTrue(ids.add(mine.get(i).getId()));
+                if (i > 0) {
+                    assertTrue(mine.get(i - 1).getId() < mine.get(i).getId(), "användarens meddelanden i id-ordning");
+                }
+            }
+        }
+    }
+
+    @Test
+    void oldestAreEvictedPerUser() {
+        MessageListDAO dao = new MessageListDAO(5, 3);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int i = 0; i < 8; i++) {
+            dao.saveMessage(new Message(1, "Lobby", "rad " + i, start.plusSeconds(i)));
+        }
+        dao.saveMessage(new Message(2, "annan", start));
+
+        List<Message> mine = dao.getMessagesByUserId(1);
+        assertEquals(List.of("rad 3", "rad 4", "rad 5", "rad 6", "rad 7"), mine.stream().map(Message::getText).toList());
+        assertEquals(3, dao.evicted());
+        assertEquals(1, dao.getMessagesByUserId(2).size(), "andra användare påverkas inte");
+
+        List<Message> page = dao.getMessagesByUserId(1, mine.get(3), 2);
+        assertEquals(List.of("rad 4", "rad 5"), page.stream().map(Message::getText).toList());
+        assertEquals(3, dao.getRecentMessagesByRoom("lobby", 10).size());
+    }
+
+    @Test
+    void capacityMustBeAtLeastOne() {
+        assertThrows(IllegalArgumentException.class, () -> new MessageListDAO(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new MessageRing(0));
+
+        MessageRing one = new MessageRing(1);
+        assertNull(one.add(new Message(1, "första", LocalDateTime.now())));
+        assertEquals("första", one.add(new Message(1, "andra", LocalDateTime.now())).getText());
+        assertEquals(1, one.size());
+    }
+}
@@ -0,0 +1,130 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se.sprinto.hakan.chatapp.model.Message;
+import se.sprinto.hakan.chatapp.util.DatabaseUtil;
+import se.sprinto.hakan.chatapp.util.SchemaManager;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * kollar med EXPLAIN i H2 att DAO:ns frågor använder indexen från SchemaManager.
+ * går det här sönder har en fråga eller ett index ändrats så att historiken
+ * plötsligt läser hela messages-tabellen
+ */
+public class SchemaIndexTest {
+
+    @BeforeEach
+    void setup() throws Exception {
+        try (InputStream testProps = getClass().getResourceAsStream("/test.properties")) {
+            DatabaseUtil.getInstance().loadPropertiesFromStream(testProps);
+        }
+        try (Connection conn = DatabaseUtil.getInstance().getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DROP TABLE IF EXISTS messages");
+            stmt.executeUpdate("DROP TABLE IF EXISTS users");
+            stmt.executeUpdate("DROP TABLE IF EXISTS schema_version");
+        }
+    }
+
+    private static String explain(String sql, Object... params) throws Exception {
+        try (Connection conn = DatabaseUtil.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getString(1).toUpperCase(Locale.ROOT);
+            }
+        }
+    }
+
+    // några användare med historik, så att H2:s statistik liknar en riktig databas
+    private static void seed() throws Exception {
+        try (Connection conn = DatabaseUtil.getInstance().getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (int u = 1; u <= 20; u++) {
+                stmt.executeUpdate("INSERT INTO users (username, password) VALUES ('u" + u + "', 'x')");
+            }
+            stmt.executeUpdate("""
+                    INSERT INTO messages (user_id, room, message, timestamp)
+                    SELECT MOD(X, 20) + 1, 'r' || MOD(X, 7), 'hej', DATEADD('SECOND', X, TIMESTAMP '2024-01-01 00:00:00')
+                    FROM SYSTEM_RANGE(1, 2000)
+                    """);
+            stmt.execute("ANALYZE");
+        }
+    }
+
+    /**
+     * planen ska slå upp raderna via ett index på column, inte läsa hela tabellen.
+     * H2 skriver indexet som en kommentar, t.ex PUBLIC.IDX_X: USER_ID = ?1
+     */
+    private static void assertIndexLookup(String plan, String column) {
+        assertFalse(plan.contains("TABLESCAN"), "frågan läser hela tabellen:\n" + plan);
+        assertTrue(plan.matches("(?s).*/\\* PUBLIC\\.\\w+: " + column + " = .*"),
+                "frågan använder inget index på " + column + ":\n" + plan);
+    }
+
+    @Test
+    void migrateCreatesSchemaOnceAndIsRepeatable() {
+        assertEquals(SchemaManager.latestVersion(), SchemaManager.migrate());
+        assertEquals(0, SchemaManager.migrate(), "andra gången finns inget kvar att göra");
+    }
+
+    @Test
+    void secondsOnlyTimestampIsWidenedToMicros() throws Exception {
+        // som en MySQL-databas från förr: TIMESTAMP utan decimaler
+        try (Connection conn = DatabaseUtil.getInstance().getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE users (id INT PRIMARY KEY AUTO_INCREMENT, "
+                    + "username VARCHAR(60) UNIQUE NOT NULL, password VARCHAR(60) NOT NULL)");
+            stmt.execute("CREATE TABLE messages (id INT PRIMARY KEY AUTO_INCREMENT, user_id INT NOT NULL, "
+                    + "message TEXT NOT NULL, timestamp TIMESTAMP(0) NOT NULL)");
+        }
+        SchemaManager.migrate();
+
+        MessageDatabaseDAO dao = new MessageDatabaseDAO();
+        try (Connection conn = DatabaseUtil.getInstance().getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("INSERT INTO users (username, password) VALUES ('u1', 'x')");
+        }
+        Message sent = new Message(1, "hej", LocalDateTime.of(2024, 1, 1, 12, 0, 0, 700_123_456));
+        dao.saveMessage(sent);
+        Message stored = dao.getMessagesByUserId(1).get(0);
+        assertEquals(sent.getTimestamp(), stored.getTimestamp(), "samma tid i minnet som i databasen");
+    }
+
+    @Test
+    void userHistoryQueriesUseAnIndex() throws Exception {
+        SchemaManager.migrate();
+        seed();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+
+        assertIndexLookup(explain(MessageDatabaseDAO.SELECT_BY_USER_SQL, 1), "USER_ID");
+        assertIndexLookup(explain(MessageDatabaseDAO.SELECT_PAGE_SQL, 1, 20), "USER_ID");
+        assertIndexLookup(explain(MessageDatabaseDAO.SELECT_PAGE_BEFORE_SQL, 1, now, now, 10, 20), "USER_ID");
+        assertIndexLookup(explain(MessageDatabaseDAO.SELECT_FIRST_PAGE_SQL, 1, 20), "USER_ID");
+        assertIndexLookup(explain(MessageDatabaseDAO.SELECT_PAGE_AFTER_SQL, 1, now, now, 10, 20), "USER_ID");
+    }
+
+    @Test
+    void roomHistoryQueryUsesRoomIndex() throws Exception {
+        SchemaManager.migrate();
+        seed();
+
+        String plan = explain(MessageDatabaseDAO.SELECT_RECENT_BY_ROOM_SQL, "r1", 10);
+        assertIndexLookup(plan, "ROOM");
+        assertTrue(plan.contains(SchemaManager.MESSAGES_ROOM_INDEX.toUpperCase(Locale.ROOT)), plan);
+    }
+}
@@ -0,0 +1,54 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import org.junit.jupiter.api.Test;
+import se.sprinto.hakan.chatapp.model.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * testar att användarlistan följer samma regler som databasen
+ */
+public class UserListDAOTest {
+
+    @Test
+    void duplicateNamesAreRejectedLikeTheDatabase() {
+        UserListDAO dao = new UserListDAO();
+        User hakan = dao.register(new User("hakan", "hemligt"));
+        assertNotNull(hakan);
+        assertEquals(1, hakan.getId());
+        assertNull(dao.register(new User("Hakan", "annat")), "samma namn med annat skiftläge är upptaget");
+
+        User loggedIn = dao.login("HAKAN", "hemligt");
+        assertNotNull(loggedIn);
+        assertEquals(1, loggedIn.getId());
+        assertNotEquals("hemligt", loggedIn.getPassword(), "bara hashen sparas");
+        assertNull(dao.login("hakan", "fel"));
+        assertNull(dao.login("okänd", "hemligt"));
+    }
+
+    @Test
+    void onlyOneOfConcurrentRegistrationsWins() throws Exception {
+        UserListDAO dao = new UserListDAO();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Callable<User>> tasks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            tasks.add(() -> dao.register(new User("samma", "123")));
+        }
+        int winners = 0;
+        for (Future<User> result : pool.invokeAll(tasks)) {
+            if (result.get() != null) {
+                winners++;
+            }
+        }
+        pool.shutdown();
+        assertEquals(1, winners);
+        assertEquals(1, dao.size());
+    }
+}
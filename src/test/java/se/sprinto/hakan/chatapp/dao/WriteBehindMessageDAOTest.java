@@ -0,0 +1,69 @@
+package se.sprinto.hakan.chatapp.dao;
+
+import org.junit.jupiter.api.Test;
+import se.sprinto.hakan.chatapp.model.Message;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * testar att meddelanden som sparas i bakgrunden skrivs i batchar och inte tappas
+ */
+public class WriteBehindMessageDAOTest {
+
+    // räknar hur många skrivningar (batchar) som görs
+    private static class CountingDAO extends MessageListDAO {
+        final AtomicInteger batches = new AtomicInteger();
+
+        @Override
+        public void saveMessages(List<Message> batch) {
+            batches.incrementAndGet();
+            super.saveMessages(batch);
+        }
+    }
+
+    @Test
+    void readSeesMessagesSavedJustBefore() {
+        CountingDAO list = new CountingDAO();
+        WriteBehindMessageDAO dao = new WriteBehindMessageDAO(list,
+                WriteBehindMessageDAO.Durability.ASYNC, 100, 50, 10_000, 1000);
+
+        for (int i = 0; i < 10; i++) {
+            dao.saveMessage(new Message(1, "rad " + i, LocalDateTime.now()));
+        }
+
+        // tidsfönstret är långt, så det är läsningen som måste tvinga fram skrivningen
+        assertEquals(10, dao.getMessagesByUserId(1).size());
+        assertEquals(1, list.batches.get(), "alla rader ska ha skrivits i en batch");
+        assertEquals(0, dao.pending());
+        dao.close();
+    }
+
+    @Test
+    void closeWritesWhatIsLeft() {
+        CountingDAO list = new CountingDAO();
+        WriteBehindMessageDAO dao = new WriteBehindMessageDAO(list,
+                WriteBehindMessageDAO.Durability.ASYNC, 100, 50, 50, 1000);
+
+        dao.saveMessage(new Message(2, "sista", LocalDateTime.now()));
+        dao.close();
+
+        assertEquals(1, list.getMessagesByUserId(2).size());
+        assertThrows(RuntimeException.class, () -> dao.saveMessage(new Message(2, "för sent", LocalDateTime.now())));
+    }
+
+    @Test
+    void syncReturnsWhenWritten() {
+        CountingDAO list = new CountingDAO();
+        WriteBehindMessageDAO dao = new WriteBehindMessageDAO(list,
+                WriteBehindMessageDAO.Durability.SYNC, 100, 50, 10_000, 1000);
+
+        dao.saveMessage(new Message(3, "hej", LocalDateTime.now()));
+
+        assertEquals(1, list.getMessagesByUserId(3).size(), "SYNC ska vänta på skrivningen");
+        dao.close();
+    }
+}
@@ -0,0 +1,92 @@
+package se.sprinto.hakan.chatapp.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * testar att binära frames kommer fram hela även när de delas upp av nätverket
+ */
+public class FrameDecoderTest {
+
+    private static ByteBuffer concat(Frame... frames) {
+        ByteBuffer all = ByteBuffer.allocate(200_000);
+        for (Frame f : frames) {
+            all.put(f.encode(true));
+        }
+        return all.flip();
+    }
+
+    @Test
+    void decodesFramesSplitAtEveryByte() throws IOException {
+        ByteBuffer bytes = concat(Frame.chat(7, "alice", "hej på dig 🌸"), Frame.input("/quit"));
+        FrameDecoder decoder = new FrameDecoder(new BufferPool(4));
+        List<Frame> frames = new ArrayList<>();
+
+        while (bytes.hasRemaining()) {
+            decoder.decode(ByteBuffer.wrap(new byte[]{bytes.get()}), frames::add);
+        }
+
+        assertEquals(2, frames.size());
+        assertEquals(FrameType.CHAT, frames.get(0).getType());
+        assertEquals(7, frames.get(0).getSenderId());
+        assertEquals("alice", frames.get(0).getSenderName());
+        assertEquals("hej på dig 🌸", frames.get(0).getText());
+        assertEquals("/quit", frames.get(1).getText());
+    }
+
+    @Test
+    void decodesFrameLargerThanPoolBuffer() throws IOException {
+        String big = "x".repeat(BufferPool.BUFFER_SIZE * 3);
+        ByteBuffer bytes = concat(Frame.input(big));
+        FrameDecoder decoder = new FrameDecoder(new BufferPool(4));
+        List<Frame> frames = new ArrayList<>();
+
+        ByteBuffer first = bytes.slice().limit(100);
+        bytes.position(100);
+        decoder.decode(first, frames::add);
+        assertTrue(frames.isEmpty(), "framen är inte klar än");
+        decoder.decode(bytes, frames::add);
+
+        assertEquals(1, frames.size());
+        assertEquals(big, frames.get(0).getText());
+    }
+
+    @Test
+    void decodesLargeFrameSplitAfterMoreThanPoolBuffer() throws IOException {
+        String big = "x".repeat(12_000);
+        ByteBuffer bytes = concat(Frame.input(big));
+        FrameDecoder decoder = new FrameDecoder(new BufferPool(4));
+        List<Frame> frames = new ArrayList<>();
+
+        // mer än en pool-buffert har redan kommit när läsningen tar slut
+        int split = BufferPool.BUFFER_SIZE + 1904;
+        ByteBuffer first = bytes.slice().limit(split);
+        bytes.position(split);
+        decoder.decode(first, frames::add);
+        assertTrue(frames.isEmpty(), "framen är inte klar än");
+        decoder.decode(bytes, frames::add);
+
+        assertEquals(1, frames.size());
+        assertEquals(big, frames.get(0).getText());
+    }
+
+    @Test
+    void rejectsInvalidLength() {
+        FrameDecoder decoder = new FrameDecoder(new BufferPool(4));
+        ByteBuffer bytes = ByteBuffer.allocate(8).putInt(Frame.MAX_FRAME_BYTES + 1).flip();
+
+        assertThrows(IOException.class, () -> decoder.decode(bytes, f -> fail("ingen frame ska komma")));
+    }
+
+    @Test
+    void textLineIsUnchangedForOldClients() {
+        assertEquals("alice: [alice] hej", Frame.chat(1, "alice", "hej").toTextLine());
+        assertEquals("alice (privat): psst", Frame.privateMessage(1, "alice", "psst").toTextLine());
+    }
+}
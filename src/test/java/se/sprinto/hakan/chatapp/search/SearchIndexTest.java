@@ -0,0 +1,93 @@
+package se.sprinto.hakan.chatapp.search;
+
+import org.junit.jupiter.api.Test;
+import se.sprinto.hakan.chatapp.dao.IndexingMessageDAO;
+import se.sprinto.hakan.chatapp.dao.MessageListDAO;
+import se.sprinto.hakan.chatapp.model.Message;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * testar ordindelningen, de komprimerade listorna och att sökningen ger de nyaste träffarna
+ */
+public class SearchIndexTest {
+
+    private static Message message(int id, String text) {
+        Message message = new Message(1, text, LocalDateTime.now());
+        message.setId(id);
+        return message;
+    }
+
+    @Test
+    void tokenizeLowercasesAndSplitsOnPunctuation() {
+        assertEquals(Set.of("hej", "på", "dig", "räksmörgås", "42"),
+                SearchIndex.tokenize("Hej på DIG!! räksmörgås, 42 a"));
+    }
+
+    @Test
+    void postingListSurvivesLargeGapsAndOutOfOrderIds() {
+        PostingList list = new PostingList();
+        int[] ids = {3, 130, 131, 20_000, 5_000_000, Integer.MAX_VALUE - 1};
+        for (int id : ids) {
+            list.add(id);
+        }
+        list.add(7);
+        list.add(130);
+        assertArrayEquals(new int[]{3, 7, 130, 131, 20_000, 5_000_000, Integer.MAX_VALUE - 1}, list.toArray());
+        assertTrue(list.bytes() < 7 * Integer.BYTES, "delta + varint ska vara mindre än råa int");
+    }
+
+    @Test
+    void searchReturnsNewestMessagesContainingAllTerms() {
+        SearchIndex index = new SearchIndex();
+        for (int id = 1; id <= 100; id++) {
+            index.add(message(id, id % 2 == 0 ? "hej kod " + id : "hej lunch " + id));
+        }
+
+        assertEquals(List.of(100, 98, 96), index.search("KOD hej", 3));
+        assertEquals(List.of(99), index.search("lunch 99", 10));
+        assertEquals(List.of(), index.search("kod lunch", 10));
+        assertEquals(List.of(), index.search("finnsinte", 10));
+        assertEquals(100, index.documents());
+        assertEquals(4, index.latency().count());
+    }
+
+    @Test
+    void removedMessagesAreSkippedAndCompactedAway() {
+        SearchIndex index = new SearchIndex();
+        for (int id = 1; id <= 2000; id++) {
+            index.add(message(id, "hej " + id));
+        }
+        long before = index.postingBytes();
+        index.remove(2000);
+        assertEquals(List.of(1999, 1998), index.search("hej", 2));
+        assertEquals(0, index.compactIfNeeded(), "ett borttaget är inte värt en omkodning");
+
+        for (int id = 1; id < 1500; id++) {
+            index.remove(id);
+        }
+        assertEquals(1500, index.compactIfNeeded());
+        assertEquals(0, index.removedPending());
+        assertEquals(500, index.documents());
+        assertEquals(List.of(1999), index.search("hej", 1));
+        assertEquals(List.of(), index.search("hej 10", 10));
+        assertEquals(1 + 500, index.terms(), "orden för borttagna försvinner också");
+        assertTrue(index.postingBytes() < before);
+    }
+
+    @Test
+    void messagesEvictedFromMemoryAreNotFound() {
+        IndexingMessageDAO dao = new IndexingMessageDAO(new MessageListDAO(2, 10), new SearchIndex());
+        for (int i = 0; i < 5; i++) {
+            dao.saveMessage(new Message(1, "lunch " + i, LocalDateTime.now()));
+        }
+        // bara de två senaste finns kvar i användarens ring
+        assertEquals(List.of("lunch 4", "lunch 3"),
+                dao.search("lunch", 10).stream().map(Message::getText).toList());
+        assertEquals(2, dao.getIndex().documents());
+    }
+}